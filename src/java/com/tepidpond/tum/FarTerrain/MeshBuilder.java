@@ -0,0 +1,126 @@
+package com.tepidpond.tum.FarTerrain;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Builds the TerrainMesh of a TerrainQuadtree node.
+ *
+ * The node is a grid of quads over heightmap tiles, each split into two
+ * triangles. Neighbouring nodes at different depths do not share all their
+ * edge vertices, which would leave cracks, so every edge also hangs a skirt
+ * straight down, deep enough to cover the largest gap the node's error
+ * allows. Ground below the sea is drawn flat, at sea level.
+ *
+ * Safe to use from any thread; meshes are built off the render thread.
+ */
+public class MeshBuilder {
+	private static final int WATER = color(48, 96, 192);
+	private static final int SAND = color(208, 200, 152);
+	private static final int GRASS = color(88, 136, 64);
+	private static final int ROCK = color(128, 120, 112);
+	private static final int SNOW = color(240, 240, 248);
+	// Heights above sea level, in blocks, where the colours change.
+	private static final float BEACH_HEIGHT = 2;
+	private static final float ROCK_HEIGHT = 48;
+	private static final float SNOW_HEIGHT = 120;
+
+	private final TerrainQuadtree tree;
+
+	public MeshBuilder(TerrainQuadtree tree) {
+		this.tree = tree;
+	}
+
+	public TerrainMesh build(long key) {
+		int depth = TerrainQuadtree.depthOf(key);
+		int grid = tree.getGrid(), side = grid + 1;
+		int step = (tree.getMapSize() >> depth) / grid;
+		int tileX0 = TerrainQuadtree.xOf(key) * grid * step;
+		int tileZ0 = TerrainQuadtree.zOf(key) * grid * step;
+		float spacing = step * tree.getBlocksPerTile();
+		float seaLevel = tree.getSeaLevel();
+		float skirtDepth = tree.getError(key) + spacing;
+
+		int gridVertices = side * side;
+		ByteBuffer vertices = ByteBuffer.allocateDirect((gridVertices + 4 * side) * TerrainMesh.VERTEX_BYTES)
+				.order(ByteOrder.nativeOrder());
+		float[] heights = new float[gridVertices];
+		for (int j = 0, v = 0; j < side; j++) {
+			for (int i = 0; i < side; i++, v++) {
+				float y = tree.getHeight(tileX0 + i * step, tileZ0 + j * step);
+				heights[v] = Math.max(y, seaLevel);
+				putVertex(vertices, i * spacing, heights[v], j * spacing, colorOf(y - seaLevel));
+			}
+		}
+		// Skirts: one vertex under each edge vertex, edge by edge in the
+		// order north, south, west, east.
+		for (int edge = 0; edge < 4; edge++) {
+			for (int n = 0; n < side; n++) {
+				int v = edgeVertex(edge, n, side);
+				int i = v % side, j = v / side;
+				putVertex(vertices, i * spacing, heights[v] - skirtDepth, j * spacing, vertices.getInt(v * TerrainMesh.VERTEX_BYTES + TerrainMesh.COLOR_OFFSET));
+			}
+		}
+		vertices.flip();
+
+		ShortBuffer indices = ByteBuffer.allocateDirect((grid * grid + 4 * grid) * 6 * 2)
+				.order(ByteOrder.nativeOrder()).asShortBuffer();
+		for (int j = 0; j < grid; j++) {
+			for (int i = 0; i < grid; i++) {
+				int v = j * side + i;
+				putQuad(indices, v, v + 1, v + side, v + side + 1);
+			}
+		}
+		for (int edge = 0; edge < 4; edge++) {
+			int skirt = gridVertices + edge * side;
+			for (int n = 0; n < grid; n++) {
+				int a = edgeVertex(edge, n, side), b = edgeVertex(edge, n + 1, side);
+				putQuad(indices, a, b, skirt + n, skirt + n + 1);
+			}
+		}
+		indices.flip();
+
+		float nodeBlocks = tree.getNodeBlocks(depth);
+		return new TerrainMesh(key, TerrainQuadtree.xOf(key) * nodeBlocks, TerrainQuadtree.zOf(key) * nodeBlocks, vertices, indices);
+	}
+
+	/** Index of the nth grid vertex along an edge. */
+	private static int edgeVertex(int edge, int n, int side) {
+		switch (edge) {
+		case 0:  return n;
+		case 1:  return (side - 1) * side + n;
+		case 2:  return n * side;
+		default: return n * side + side - 1;
+		}
+	}
+
+	/**
+	 * Two triangles over a quad with corners a, b along one side and c, d
+	 * opposite them. Skirts are seen from both sides, so winding does not
+	 * matter and culling must be off.
+	 */
+	private static void putQuad(ShortBuffer indices, int a, int b, int c, int d) {
+		indices.put((short)a).put((short)c).put((short)b);
+		indices.put((short)b).put((short)c).put((short)d);
+	}
+
+	private static void putVertex(ByteBuffer vertices, float x, float y, float z, int color) {
+		vertices.putFloat(x).putFloat(y).putFloat(z).putInt(color);
+	}
+
+	private static int colorOf(float height) {
+		if (height < 0) return WATER;
+		if (height < BEACH_HEIGHT) return SAND;
+		if (height < ROCK_HEIGHT) return GRASS;
+		if (height < SNOW_HEIGHT) return ROCK;
+		return SNOW;
+	}
+
+	/** Opaque colour as the four bytes red, green, blue, alpha in memory. */
+	private static int color(int r, int g, int b) {
+		return ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN
+				? r << 24 | g << 16 | b << 8 | 0xff
+				: 0xff << 24 | b << 16 | g << 8 | r;
+	}
+}
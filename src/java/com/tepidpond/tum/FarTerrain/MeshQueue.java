@@ -0,0 +1,107 @@
+package com.tepidpond.tum.FarTerrain;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import com.tepidpond.tum.G;
+
+/**
+ * Builds a TerrainQuadtree and its meshes on a background thread for
+ * whoever draws them.
+ *
+ * The tree is made first, and getTree() is null until it is ready. The
+ * drawing thread then asks for the nodes it wants with request() and takes
+ * the finished meshes with poll(), so it never waits for one to be built.
+ * A node is built once; after the drawing thread has dropped its mesh it
+ * calls forget() so the node can be requested again.
+ */
+public class MeshQueue {
+	private final FutureTask<TerrainQuadtree> tree;
+	// Set once the tree is made; nodes are only requested after that.
+	private volatile MeshBuilder builder;
+	private final ExecutorService executor;
+	private final ConcurrentLinkedQueue<TerrainMesh> finished = new ConcurrentLinkedQueue<TerrainMesh>();
+	// Nodes requested and not forgotten.
+	private final Set<Long> requested = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+	/**
+	 * @param tree Makes the tree, on the building thread.
+	 */
+	public MeshQueue(Callable<TerrainQuadtree> tree) {
+		this.tree = new FutureTask<TerrainQuadtree>(tree);
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, G.ModID + " far terrain mesher");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		executor.execute(this.tree);
+	}
+
+	/**
+	 * Get the tree, without waiting for it.
+	 * @return The tree, or null if it is not made yet.
+	 * @throws ExecutionException If making the tree failed.
+	 */
+	public TerrainQuadtree getTree() throws ExecutionException {
+		if (!tree.isDone())
+			return null;
+		try {
+			TerrainQuadtree done = tree.get();
+			if (builder == null)
+				builder = new MeshBuilder(done);
+			return done;
+		} catch (InterruptedException e) {
+			// A finished task does not wait.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Queue a node for building, unless it has been already. Only once
+	 * getTree() has returned the tree.
+	 */
+	public void request(final long key) {
+		if (!requested.add(key))
+			return;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				// Skip nodes forgotten while they waited.
+				if (requested.contains(key))
+					finished.add(builder.build(key));
+			}
+		});
+	}
+
+	/**
+	 * Take a finished mesh.
+	 * @return The mesh, or null if none is ready.
+	 */
+	public TerrainMesh poll() {
+		return finished.poll();
+	}
+
+	public void forget(long key) {
+		requested.remove(key);
+	}
+
+	/**
+	 * Stop building. Meshes already queued are dropped.
+	 */
+	public void shutdown() {
+		requested.clear();
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,41 @@
+package com.tepidpond.tum.FarTerrain;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Vertices and triangles of one TerrainQuadtree node, ready to be copied to
+ * the graphics card as they are.
+ *
+ * Each vertex is VERTEX_BYTES bytes: x, y and z as floats in blocks,
+ * relative to the node's corner, then red, green, blue and alpha bytes.
+ * Triangles are triples of unsigned short indices. Both buffers are direct
+ * and in native byte order.
+ */
+public class TerrainMesh {
+	public static final int VERTEX_BYTES = 16;
+	public static final int COLOR_OFFSET = 12;
+
+	private final long key;
+	private final float originX, originZ;
+	private final ByteBuffer vertices;
+	private final ShortBuffer indices;
+
+	TerrainMesh(long key, float originX, float originZ, ByteBuffer vertices, ShortBuffer indices) {
+		this.key = key;
+		this.originX = originX;
+		this.originZ = originZ;
+		this.vertices = vertices;
+		this.indices = indices;
+	}
+
+	/** The node, as TerrainQuadtree.key(). */
+	public long getKey()            { return key; }
+	/** Corner of the node in the map, in blocks. */
+	public float getOriginX()       { return originX; }
+	public float getOriginZ()       { return originZ; }
+	public ByteBuffer getVertices() { return vertices.duplicate(); }
+	public ShortBuffer getIndices() { return indices.duplicate(); }
+	public int getIndexCount()      { return indices.limit(); }
+	public int getTriangleCount()   { return indices.limit() / 3; }
+}
@@ -0,0 +1,205 @@
+package com.tepidpond.tum.FarTerrain;
+
+import java.util.List;
+
+import com.tepidpond.tum.WorldGen.HeightPyramid;
+
+/**
+ * A quadtree of square tiles over the heightmap, for drawing distant terrain
+ * at a level of detail that suits its distance.
+ *
+ * Every node is drawn as a grid of GRID x GRID quads, so a node at depth d
+ * samples the heightmap every (mapSize >> d) / GRID tiles; the leaves sample
+ * every tile. Each node knows how far its grid strays from the full
+ * resolution heightmap below it, and select() splits a node while that
+ * error, projected onto the screen, is more than a tolerance.
+ *
+ * The heightmap wraps, so the world is covered by copies of the root.
+ * Distances are in blocks, and positions are relative to the origin of the
+ * copy of the map they are in. The height range of a node, which bounds
+ * its distance from the camera, comes from the map's HeightPyramid. Nothing
+ * here touches OpenGL or Minecraft.
+ */
+public class TerrainQuadtree {
+	/** Quads along each side of a node. */
+	public static final int GRID = 32;
+
+	private final float[] heightMap;
+	private final HeightPyramid pyramid;
+	private final int mapSize;
+	private final int grid;
+	private final int leafDepth;
+	private final float blocksPerTile;
+	private final float heightMin, heightScale, heightBase, seaLevel;
+	// Per depth and node, index iz << depth | ix: the error in heightmap units.
+	private final float[][] errors;
+
+	/**
+	 * A node picked by select(), in the copy of the map whose origin is at
+	 * (offsetX, offsetZ).
+	 */
+	public static final class Selection {
+		public final long key;
+		public final float offsetX, offsetZ;
+
+		Selection(long key, float offsetX, float offsetZ) {
+			this.key = key;
+			this.offsetX = offsetX;
+			this.offsetZ = offsetZ;
+		}
+	}
+
+	/**
+	 * Heights are placed like TUMChunkProviderGenerate does:
+	 * y = (h - heightMin) * heightScale + heightBase.
+	 * @param mapSize Side of the heightmap; a power of two.
+	 * @param blocksPerTile Blocks along the side of a heightmap tile.
+	 * @param seaLevel Height of the sea in blocks. Lower ground is drawn as
+	 *                 water at this height.
+	 */
+	public TerrainQuadtree(HeightPyramid pyramid, float blocksPerTile, float heightMin, float heightScale, float heightBase, float seaLevel) {
+		this.heightMap = pyramid.getHeightMap();
+		this.pyramid = pyramid;
+		this.mapSize = pyramid.getMapSize();
+		this.grid = Math.min(GRID, mapSize);
+		this.leafDepth = Integer.numberOfTrailingZeros(mapSize / grid);
+		this.blocksPerTile = blocksPerTile;
+		this.heightMin = heightMin;
+		this.heightScale = heightScale;
+		this.heightBase = heightBase;
+		this.seaLevel = seaLevel;
+		this.errors = new float[leafDepth + 1][];
+		for (int depth = leafDepth; depth >= 0; depth--)
+			measure(depth);
+	}
+
+	/**
+	 * Work out the errors of the nodes at a depth. The
+	 * nodes below it must have been measured already, as a node's error is
+	 * never less than its children's; otherwise a split could lose detail.
+	 */
+	private void measure(int depth) {
+		int nodes = 1 << depth, nodeTiles = mapSize >> depth, step = nodeTiles / grid;
+		float[] error = new float[nodes * nodes];
+
+		for (int y = 0; y < mapSize; y++) {
+			int y0 = y - y % step, y1 = (y0 + step) & (mapSize - 1);
+			int dy = y - y0;
+			float fy = (float)dy / step;
+			int rowNodes = (y / nodeTiles) * nodes;
+			for (int x = 0; x < mapSize; x++) {
+				int x0 = x - x % step, x1 = (x0 + step) & (mapSize - 1);
+				int dx = x - x0;
+				float fx = (float)dx / step;
+				float a = heightMap[y0 * mapSize + x0], b = heightMap[y0 * mapSize + x1];
+				float c = heightMap[y1 * mapSize + x0], d = heightMap[y1 * mapSize + x1];
+				// The ground as MeshBuilder draws the quad: triangles a-c-b
+				// and b-c-d, either side of the diagonal from b to c.
+				float drawn = dx + dy <= step
+						? a + (b - a) * fx + (c - a) * fy
+						: d + (c - d) * (1 - fx) + (b - d) * (1 - fy);
+				int node = rowNodes + x / nodeTiles;
+				float deviation = Math.abs(heightMap[y * mapSize + x] - drawn);
+				if (deviation > error[node]) error[node] = deviation;
+			}
+		}
+		if (depth < leafDepth) {
+			float[] childErrors = errors[depth + 1];
+			int children = nodes * 2;
+			for (int i = 0; i < childErrors.length; i++) {
+				int node = (i / children / 2) * nodes + (i % children) / 2;
+				if (childErrors[i] > error[node]) error[node] = childErrors[i];
+			}
+		}
+		errors[depth] = error;
+	}
+
+	public static long key(int depth, int ix, int iz) {
+		return (long)depth << 48 | (long)ix << 24 | iz;
+	}
+	public static int depthOf(long key) { return (int)(key >>> 48); }
+	public static int xOf(long key)     { return (int)(key >>> 24) & 0xffffff; }
+	public static int zOf(long key)     { return (int)key & 0xffffff; }
+
+	public int getMapSize()         { return mapSize; }
+	public int getGrid()            { return grid; }
+	public int getLeafDepth()       { return leafDepth; }
+	public float getBlocksPerTile() { return blocksPerTile; }
+	public float getSeaLevel()      { return seaLevel; }
+
+	/** Side of a node at depth, in blocks. */
+	public float getNodeBlocks(int depth) {
+		return (mapSize >> depth) * blocksPerTile;
+	}
+
+	/** How far the grid of a node may be from the real ground, in blocks. */
+	public float getError(long key) {
+		int depth = depthOf(key);
+		return errors[depth][zOf(key) << depth | xOf(key)] * heightScale;
+	}
+
+	/** Height of a heightmap tile in blocks. Tile coordinates wrap. */
+	public float getHeight(int tileX, int tileY) {
+		int mask = mapSize - 1;
+		return toBlocks(heightMap[(tileY & mask) * mapSize + (tileX & mask)]);
+	}
+
+	private float toBlocks(float h) {
+		return (h - heightMin) * heightScale + heightBase;
+	}
+
+	/**
+	 * Pick the nodes to draw around a camera.
+	 * @param viewDistance Nodes further than this, across the ground, are
+	 *                     left out.
+	 * @param nearDistance Nodes that are all nearer than this are left out,
+	 *                     as the real terrain is drawn there.
+	 * @param pixelsPerRadian Screen height / (2 tan(fov / 2)): turns an
+	 *                        error at a distance into pixels.
+	 * @param tolerance Most error to allow, in pixels.
+	 * @param out Receives the nodes.
+	 */
+	public void select(float camX, float camY, float camZ, float viewDistance, float nearDistance,
+			float pixelsPerRadian, float tolerance, List<Selection> out) {
+		float rootBlocks = getNodeBlocks(0);
+		int copyX0 = (int)Math.floor((camX - viewDistance) / rootBlocks);
+		int copyX1 = (int)Math.floor((camX + viewDistance) / rootBlocks);
+		int copyZ0 = (int)Math.floor((camZ - viewDistance) / rootBlocks);
+		int copyZ1 = (int)Math.floor((camZ + viewDistance) / rootBlocks);
+		float splitFactor = pixelsPerRadian / tolerance;
+		for (int copyZ = copyZ0; copyZ <= copyZ1; copyZ++)
+			for (int copyX = copyX0; copyX <= copyX1; copyX++)
+				select(0, 0, 0, copyX * rootBlocks, copyZ * rootBlocks, camX, camY, camZ,
+						viewDistance, nearDistance, splitFactor, out);
+	}
+
+	private void select(int depth, int ix, int iz, float offsetX, float offsetZ, float camX, float camY, float camZ,
+			float viewDistance, float nearDistance, float splitFactor, List<Selection> out) {
+		float size = getNodeBlocks(depth);
+		float x0 = offsetX + ix * size, z0 = offsetZ + iz * size;
+		float dx = Math.max(0, Math.max(x0 - camX, camX - (x0 + size)));
+		float dz = Math.max(0, Math.max(z0 - camZ, camZ - (z0 + size)));
+		float across = dx * dx + dz * dz;
+		if (across > viewDistance * viewDistance)
+			return;
+		float fx = Math.max(Math.abs(x0 - camX), Math.abs(x0 + size - camX));
+		float fz = Math.max(Math.abs(z0 - camZ), Math.abs(z0 + size - camZ));
+		if (fx * fx + fz * fz < nearDistance * nearDistance)
+			return;
+
+		// A node at depth is a cell of the pyramid's level log2(mapSize) - depth.
+		int level = pyramid.getLevels() - 1 - depth;
+		float low = Math.max(toBlocks(pyramid.getMin(level, ix, iz)), seaLevel);
+		float high = Math.max(toBlocks(pyramid.getMax(level, ix, iz)), seaLevel);
+		float dy = Math.max(0, Math.max(low - camY, camY - high));
+		float distance = Math.max(1, (float)Math.sqrt(across + dy * dy));
+		float error = errors[depth][iz << depth | ix] * heightScale;
+		if (depth < leafDepth && error * splitFactor > distance) {
+			for (int child = 0; child < 4; child++)
+				select(depth + 1, ix * 2 + (child & 1), iz * 2 + (child >> 1), offsetX, offsetZ, camX, camY, camZ,
+						viewDistance, nearDistance, splitFactor, out);
+		} else {
+			out.add(new Selection(key(depth, ix, iz), offsetX, offsetZ));
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.tepidpond.tum.FarTerrain;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.tepidpond.tum.WorldGen.TUMPerWorldData;
+
+/**
+ * Hands the worlds of the integrated server to the far terrain renderer,
+ * which runs on the client thread and must not look them up itself.
+ *
+ * The server thread publishes a world's data when its chunk provider is
+ * made, and everything is withdrawn when the server stops. The renderer
+ * only reads what has been published; TUMPerWorldData stores a finished
+ * heightmap in a single volatile write, so it can poll for it from there.
+ */
+public class TerrainSource {
+	private static final ConcurrentMap<Integer, TUMPerWorldData> published =
+			new ConcurrentHashMap<Integer, TUMPerWorldData>();
+
+	public static void publish(int dimension, TUMPerWorldData data) {
+		published.put(dimension, data);
+	}
+
+	/**
+	 * @return The data of a dimension of the integrated server, or null if
+	 *         none has been published.
+	 */
+	public static TUMPerWorldData get(int dimension) {
+		return published.get(dimension);
+	}
+
+	public static void clear() {
+		published.clear();
+	}
+}
@@ -1,111 +1,263 @@
 package com.tepidpond.tum;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.multiplayer.WorldClient;
-import net.minecraft.client.renderer.Tessellator;
-import net.minecraft.client.renderer.entity.RenderManager;
-import net.minecraft.client.renderer.texture.TextureManager;
+import net.minecraft.entity.EntityLivingBase;
 import net.minecraftforge.client.IRenderHandler;
 import net.minecraftforge.client.event.RenderWorldLastEvent;
 
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GLContext;
+import org.lwjgl.util.glu.Project;
+
+import com.tepidpond.tum.FarTerrain.MeshQueue;
+import com.tepidpond.tum.FarTerrain.TerrainMesh;
+import com.tepidpond.tum.FarTerrain.TerrainQuadtree;
+import com.tepidpond.tum.FarTerrain.TerrainSource;
+import com.tepidpond.tum.PlateTectonics.Lithosphere;
+import com.tepidpond.tum.WorldGen.HeightPyramid;
+import com.tepidpond.tum.WorldGen.TUMChunkProviderGenerate;
+import com.tepidpond.tum.WorldGen.TUMPerWorldData;
+import com.tepidpond.tum.WorldGen.TUMProvider;
 
 import cpw.mods.fml.common.eventhandler.SubscribeEvent;
 import cpw.mods.fml.relauncher.Side;
 import cpw.mods.fml.relauncher.SideOnly;
 
+/**
+ * Draws the terrain beyond the render distance from the world's heightmap.
+ *
+ * It stands in for the sky renderer of TUM worlds: it draws the vanilla sky,
+ * then the far terrain, then clears the depth buffer so the real terrain is
+ * drawn over it. Which parts of the heightmap to draw, and at what detail,
+ * comes from a TerrainQuadtree; the tree and its meshes are made by a
+ * MeshQueue on another thread, and this only uploads and draws them.
+ *
+ * The heightmap is only known to the server, which hands it over through
+ * TerrainSource, so this works in single player and on LAN hosts, not on
+ * remote servers.
+ */
 @SideOnly(Side.CLIENT)
 public class FarTerrainRenderer extends IRenderHandler {
+	// Blocks to draw far terrain out to.
+	private static final float VIEW_DISTANCE = 2048;
+	// Most error to allow on screen, in pixels.
+	private static final float TOLERANCE = 16;
+	private static final int UPLOADS_PER_FRAME = 8;
+	// Frames a mesh may go undrawn before it is dropped.
+	private static final int FRAMES_TO_KEEP = 600;
+	// Frames between looks for a heightmap that was not ready.
+	private static final int RETRY_FRAMES = 100;
+
 	private final Minecraft mc;
-	private final TextureManager renderEngine;
-	private RenderManager renderManager;
-	
+	private WorldClient world;
+	private TerrainQuadtree tree;
+	private MeshQueue meshes;
+	private final Map<Long, Buffers> uploaded = new HashMap<Long, Buffers>();
+	private final List<TerrainQuadtree.Selection> selection = new ArrayList<TerrainQuadtree.Selection>();
+	private int frame, nextTry;
+
+	/** A mesh on the graphics card. */
+	private static final class Buffers {
+		final int vertices, indices, count;
+		final float originX, originZ;
+		int lastDrawn;
+
+		Buffers(TerrainMesh mesh) {
+			vertices = GL15.glGenBuffers();
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vertices);
+			GL15.glBufferData(GL15.GL_ARRAY_BUFFER, mesh.getVertices(), GL15.GL_STATIC_DRAW);
+			indices = GL15.glGenBuffers();
+			GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indices);
+			GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, mesh.getIndices(), GL15.GL_STATIC_DRAW);
+			count = mesh.getIndexCount();
+			originX = mesh.getOriginX();
+			originZ = mesh.getOriginZ();
+		}
+
+		void delete() {
+			GL15.glDeleteBuffers(vertices);
+			GL15.glDeleteBuffers(indices);
+		}
+	}
+
 	public FarTerrainRenderer(Minecraft mc) {
 		this.mc = mc;
-		this.renderEngine = mc.getTextureManager();
-		this.renderManager = RenderManager.instance;
 	}
-	
+
+	/**
+	 * Take over the sky of TUM worlds as they are entered.
+	 */
 	@SubscribeEvent
 	public void RenderWorldLastEvent(RenderWorldLastEvent event) {
+		WorldClient current = mc.theWorld;
+		if (current != null && current.provider instanceof TUMProvider && current.provider.getSkyRenderer() != this)
+			current.provider.setSkyRenderer(this);
+	}
+
+	@Override
+	public void render(float partialTicks, WorldClient world, Minecraft mc) {
+		// The vanilla sky draws itself unless there is a sky renderer.
+		world.provider.setSkyRenderer(null);
 		try {
-			if (mc.thePlayer != null) {
-				render(event.partialTicks, mc.theWorld, mc);
-			}
+			mc.renderGlobal.renderSky(partialTicks);
+		} finally {
+			world.provider.setSkyRenderer(this);
+		}
+
+		try {
+			frame++;
+			if (world != this.world)
+				reset(world);
+			if (tree == null && !load())
+				return;
+			renderTerrain(partialTicks);
 		} catch (Exception e) {
 			System.out.println("Non-fatal error in FarTerrainRenderer.\n" + e.toString());
 		}
 	}
-	
-	@Override
-	public void render(float partialTicks, WorldClient world, Minecraft mc) {
-		// Completely POC code.
-		
-		float x = 100.0f;
-		float y = 100.0f;
-		float z = 100.0f;
-		String[] text = {"AMAZING!"};
-		boolean renderBlackBackground = false;
-		int color = 0xff00ff;
-		
-        float playerX = (float) (mc.thePlayer.lastTickPosX + (mc.thePlayer.posX - mc.thePlayer.lastTickPosX) * partialTicks);
-        float playerY = (float) (mc.thePlayer.lastTickPosY + (mc.thePlayer.posY - mc.thePlayer.lastTickPosY) * partialTicks);
-        float playerZ = (float) (mc.thePlayer.lastTickPosZ + (mc.thePlayer.posZ - mc.thePlayer.lastTickPosZ) * partialTicks);
-
-        float dx = x-playerX;
-        float dy = y-playerY;
-        float dz = z-playerZ;
-        float distance = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
-        float scale = 0.03f;
-        
-        GL11.glColor4f(1f, 1f, 1f, 0.5f);
-        GL11.glPushMatrix();
-        GL11.glTranslatef(dx, dy, dz);
-        GL11.glRotatef(-renderManager.playerViewY, 0.0F, 1.0F, 0.0F);
-        GL11.glRotatef(renderManager.playerViewX, 1.0F, 0.0F, 0.0F);
-        GL11.glScalef(-scale, -scale, scale);
-        GL11.glDisable(GL11.GL_LIGHTING);
-        GL11.glDepthMask(false);
-        GL11.glDisable(GL11.GL_DEPTH_TEST);
-        GL11.glEnable(GL11.GL_BLEND);
-        GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
-        
-        int textWidth = 0;
-        for (String thisMessage : text)
-        {
-            int thisMessageWidth = mc.fontRenderer.getStringWidth(thisMessage);
-
-            if (thisMessageWidth > textWidth)
-            	textWidth = thisMessageWidth;
-        }
-        
-        int lineHeight = 10;
-        
-        if(renderBlackBackground)
-        {
-            Tessellator tessellator = Tessellator.instance;
-        	
-            GL11.glDisable(GL11.GL_TEXTURE_2D);
-            tessellator.startDrawingQuads();
-            int stringMiddle = textWidth / 2;
-            tessellator.addVertex(-stringMiddle - 1, -1 + 0, 0.0D);
-            tessellator.addVertex(-stringMiddle - 1, 8 + lineHeight*text.length-lineHeight, 0.0D);
-            tessellator.addVertex(stringMiddle + 1, 8 + lineHeight*text.length-lineHeight, 0.0D);
-            tessellator.addVertex(stringMiddle + 1, -1 + 0, 0.0D);
-            tessellator.draw();
-            GL11.glEnable(GL11.GL_TEXTURE_2D);
-        }
-        
-        int i = 0;
-        for(String message : text)
-        {
-        	mc.fontRenderer.drawString(message, -textWidth / 2, i*lineHeight, color);
-        	i++;
-        }
-        
-        GL11.glColor4f(1.0F, 1.0F, 1.0F, 1.0F);
-        GL11.glDepthMask(true);
-        GL11.glEnable(GL11.GL_DEPTH_TEST);
-        GL11.glPopMatrix();		
+
+	/**
+	 * Drop everything belonging to the last world.
+	 */
+	private void reset(WorldClient world) {
+		for (Buffers buffers: uploaded.values())
+			buffers.delete();
+		uploaded.clear();
+		if (meshes != null)
+			meshes.shutdown();
+		meshes = null;
+		tree = null;
+		nextTry = frame;
+		this.world = world;
+	}
+
+	/**
+	 * Get the heightmap the integrated server has published, if there is
+	 * one and the map is ready, and start making its tree.
+	 * @return Whether the tree is ready.
+	 */
+	private boolean load() throws ExecutionException {
+		if (meshes != null) {
+			try {
+				tree = meshes.getTree();
+			} catch (ExecutionException e) {
+				meshes.shutdown();
+				meshes = null;
+				throw e;
+			}
+			return tree != null;
+		}
+		if (frame < nextTry)
+			return false;
+		nextTry = frame + RETRY_FRAMES;
+		final TUMPerWorldData data = TerrainSource.get(world.provider.dimensionId);
+		if (data == null || !data.isHeightMapGenerated() || !GLContext.getCapabilities().OpenGL15)
+			return false;
+
+		meshes = new MeshQueue(new Callable<TerrainQuadtree>() {
+			@Override
+			public TerrainQuadtree call() {
+				float[] bounds = new float[2];
+				HeightPyramid pyramid = data.getHeightPyramid(bounds);
+				// As TUMChunkProviderGenerate places heights.
+				float min = bounds[0], max = bounds[1];
+				float heightScale = (TUMChunkProviderGenerate.WORLD_HEIGHT - TUMChunkProviderGenerate.RESERVED_BASEMENT) / (max - min);
+				float seaLevel = (Lithosphere.CONTINENTAL_BASE - min) * heightScale;
+				return new TerrainQuadtree(pyramid, 1 / TUMChunkProviderGenerate.SCALE_FACTOR,
+						min, heightScale, TUMChunkProviderGenerate.RESERVED_BASEMENT, seaLevel);
+			}
+		});
+		return false;
+	}
+
+	private void renderTerrain(float partialTicks) {
+		for (int i = 0; i < UPLOADS_PER_FRAME; i++) {
+			TerrainMesh mesh = meshes.poll();
+			if (mesh == null)
+				break;
+			Buffers buffers = new Buffers(mesh);
+			buffers.lastDrawn = frame;
+			Buffers old = uploaded.put(mesh.getKey(), buffers);
+			if (old != null)
+				old.delete();
+		}
+
+		// The sky is drawn before RenderManager learns where the camera is.
+		EntityLivingBase view = mc.renderViewEntity;
+		double camX = view.lastTickPosX + (view.posX - view.lastTickPosX) * partialTicks;
+		double camY = view.lastTickPosY + (view.posY - view.lastTickPosY) * partialTicks;
+		double camZ = view.lastTickPosZ + (view.posZ - view.lastTickPosZ) * partialTicks;
+		float fov = mc.gameSettings.fovSetting;
+		float pixelsPerRadian = mc.displayHeight / (2 * (float)Math.tan(Math.toRadians(fov) / 2));
+		float nearDistance = mc.gameSettings.renderDistanceChunks * 16;
+		selection.clear();
+		tree.select((float)camX, (float)camY, (float)camZ, VIEW_DISTANCE, nearDistance, pixelsPerRadian, TOLERANCE, selection);
+
+		GL11.glPushAttrib(GL11.GL_ENABLE_BIT | GL11.GL_DEPTH_BUFFER_BIT | GL11.GL_TRANSFORM_BIT);
+		GL11.glMatrixMode(GL11.GL_PROJECTION);
+		GL11.glPushMatrix();
+		GL11.glLoadIdentity();
+		// Far enough to see the whole view distance from the top of the world.
+		Project.gluPerspective(fov, (float)mc.displayWidth / mc.displayHeight, 8, VIEW_DISTANCE * 1.5f);
+		GL11.glMatrixMode(GL11.GL_MODELVIEW);
+		GL11.glPushMatrix();
+		GL11.glDisable(GL11.GL_TEXTURE_2D);
+		GL11.glDisable(GL11.GL_CULL_FACE);
+		GL11.glDisable(GL11.GL_LIGHTING);
+		GL11.glDisable(GL11.GL_FOG);
+		GL11.glDisable(GL11.GL_BLEND);
+		GL11.glDisable(GL11.GL_ALPHA_TEST);
+		GL11.glEnable(GL11.GL_DEPTH_TEST);
+		GL11.glDepthMask(true);
+		GL11.glEnableClientState(GL11.GL_VERTEX_ARRAY);
+		GL11.glEnableClientState(GL11.GL_COLOR_ARRAY);
+
+		for (TerrainQuadtree.Selection node: selection) {
+			Buffers buffers = uploaded.get(node.key);
+			if (buffers == null) {
+				meshes.request(node.key);
+				continue;
+			}
+			buffers.lastDrawn = frame;
+			GL11.glPushMatrix();
+			GL11.glTranslated(node.offsetX + buffers.originX - camX, -camY, node.offsetZ + buffers.originZ - camZ);
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, buffers.vertices);
+			GL11.glVertexPointer(3, GL11.GL_FLOAT, TerrainMesh.VERTEX_BYTES, 0);
+			GL11.glColorPointer(4, GL11.GL_UNSIGNED_BYTE, TerrainMesh.VERTEX_BYTES, TerrainMesh.COLOR_OFFSET);
+			GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, buffers.indices);
+			GL11.glDrawElements(GL11.GL_TRIANGLES, buffers.count, GL11.GL_UNSIGNED_SHORT, 0);
+			GL11.glPopMatrix();
+		}
+
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, 0);
+		GL11.glDisableClientState(GL11.GL_COLOR_ARRAY);
+		GL11.glDisableClientState(GL11.GL_VERTEX_ARRAY);
+		GL11.glPopMatrix();
+		GL11.glMatrixMode(GL11.GL_PROJECTION);
+		GL11.glPopMatrix();
+		GL11.glPopAttrib();
+		GL11.glColor4f(1.0F, 1.0F, 1.0F, 1.0F);
+		// The real terrain is nearer, whatever the far terrain's depth says.
+		GL11.glClear(GL11.GL_DEPTH_BUFFER_BIT);
+
+		for (Iterator<Map.Entry<Long, Buffers>> i = uploaded.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry<Long, Buffers> entry = i.next();
+			if (frame - entry.getValue().lastDrawn > FRAMES_TO_KEEP) {
+				entry.getValue().delete();
+				meshes.forget(entry.getKey());
+				i.remove();
+			}
+		}
 	}
 }
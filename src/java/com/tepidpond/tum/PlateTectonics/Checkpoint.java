@@ -0,0 +1,180 @@
+package com.tepidpond.tum.PlateTectonics;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered binary streams over a FileChannel, used by Lithosphere and Plate
+ * to save and resume a simulation.
+ *
+ * Values are big-endian, so a checkpoint can be moved between machines.
+ * Bulk transfers go through views of the transfer buffer rather than one
+ * value at a time.
+ */
+class Checkpoint {
+	static final int MAGIC = 0x54554d43;	// "TUMC"
+	// 2 added the Fractal. Version 1 checkpoints are still read.
+	static final int VERSION = 2;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	static class Writer implements Closeable {
+		private final FileOutputStream stream;
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		Writer(File file) throws IOException {
+			stream = new FileOutputStream(file);
+			channel = stream.getChannel();
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(4);
+			buffer.putInt(value);
+		}
+		void putFloat(float value) throws IOException {
+			ensure(4);
+			buffer.putFloat(value);
+		}
+		void putBytes(byte[] src) throws IOException {
+			putInt(src.length);
+			for (int done = 0; done < src.length; ) {
+				ensure(1);
+				int n = Math.min(buffer.remaining(), src.length - done);
+				buffer.put(src, done, n);
+				done += n;
+			}
+		}
+
+		/** Write all of src, whatever its position and limit. */
+		void putFloats(FloatBuffer src) throws IOException {
+			FloatBuffer from = src.duplicate();
+			from.clear();
+			while (from.hasRemaining()) {
+				ensure(4);
+				int n = Math.min(buffer.remaining() / 4, from.remaining());
+				from.limit(from.position() + n);
+				buffer.asFloatBuffer().put(from);
+				buffer.position(buffer.position() + n * 4);
+				from.limit(from.capacity());
+			}
+		}
+		void putInts(IntBuffer src) throws IOException {
+			IntBuffer from = src.duplicate();
+			from.clear();
+			while (from.hasRemaining()) {
+				ensure(4);
+				int n = Math.min(buffer.remaining() / 4, from.remaining());
+				from.limit(from.position() + n);
+				buffer.asIntBuffer().put(from);
+				buffer.position(buffer.position() + n * 4);
+				from.limit(from.capacity());
+			}
+		}
+
+		/** Flush everything written so far to the disk, then close. */
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+				channel.force(false);
+			} finally {
+				stream.close();
+			}
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes)
+				flush();
+		}
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+	}
+
+	static class Reader implements Closeable {
+		private final FileInputStream stream;
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		Reader(File file) throws IOException {
+			stream = new FileInputStream(file);
+			channel = stream.getChannel();
+			buffer.flip();
+		}
+
+		int getInt() throws IOException {
+			ensure(4);
+			return buffer.getInt();
+		}
+		float getFloat() throws IOException {
+			ensure(4);
+			return buffer.getFloat();
+		}
+		byte[] getBytes() throws IOException {
+			int length = getInt();
+			if (length < 0)
+				throw new IOException("Corrupt checkpoint.");
+			byte[] dst = new byte[length];
+			for (int done = 0; done < length; ) {
+				ensure(1);
+				int n = Math.min(buffer.remaining(), length - done);
+				buffer.get(dst, done, n);
+				done += n;
+			}
+			return dst;
+		}
+
+		/** Fill all of dst, whatever its position and limit. */
+		void getFloats(FloatBuffer dst) throws IOException {
+			FloatBuffer to = dst.duplicate();
+			to.clear();
+			while (to.hasRemaining()) {
+				ensure(4);
+				int n = Math.min(buffer.remaining() / 4, to.remaining());
+				FloatBuffer from = buffer.asFloatBuffer();
+				from.limit(n);
+				to.put(from);
+				buffer.position(buffer.position() + n * 4);
+			}
+		}
+		void getInts(IntBuffer dst) throws IOException {
+			IntBuffer to = dst.duplicate();
+			to.clear();
+			while (to.hasRemaining()) {
+				ensure(4);
+				int n = Math.min(buffer.remaining() / 4, to.remaining());
+				IntBuffer from = buffer.asIntBuffer();
+				from.limit(n);
+				to.put(from);
+				buffer.position(buffer.position() + n * 4);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			stream.close();
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return;
+			buffer.compact();
+			while (buffer.position() < bytes) {
+				if (channel.read(buffer) < 0)
+					throw new EOFException("Checkpoint is truncated.");
+			}
+			buffer.flip();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package com.tepidpond.tum.PlateTectonics;
+
+import java.util.Arrays;
+
+/**
+ * Reusable list of collision or subduction events kept as parallel
+ * primitive arrays. Each event is delivered to a target plate and names
+ * the source plate it came from, where it happened on the world map and
+ * how much crust was involved.
+ * 
+ * Storage grows geometrically and is kept across clear(), so a buffer that
+ * lives as long as its Lithosphere stops allocating after the first few
+ * generations.
+ */
+public class CollisionBuffer {
+	private static final int INITIAL_CAPACITY = 256;
+	
+	private int size = 0;
+	private int[] target = new int[INITIAL_CAPACITY];
+	private int[] source = new int[INITIAL_CAPACITY];
+	private int[] worldX = new int[INITIAL_CAPACITY];
+	private int[] worldY = new int[INITIAL_CAPACITY];
+	private float[] crust = new float[INITIAL_CAPACITY];
+	
+	// Event indices grouped by target plate, see groupByTarget().
+	private int[] order = new int[INITIAL_CAPACITY];
+	private int[] groupStart = new int[1];
+	
+	public int size()              { return size; }
+	public int getTarget(int event) { return target[event]; }
+	public int getSource(int event) { return source[event]; }
+	public int getX(int event)      { return worldX[event]; }
+	public int getY(int event)      { return worldY[event]; }
+	public float getCrust(int event) { return crust[event]; }
+	
+	/**
+	 * Record an event.
+	 * @param targetPlate Plate the event is delivered to.
+	 * @param sourcePlate Plate the event came from.
+	 * @param x X coordinate of the event on the world map.
+	 * @param y Y coordinate of the event on the world map.
+	 * @param amountCrust Amount of crust involved.
+	 */
+	public void add(int targetPlate, int sourcePlate, int x, int y, float amountCrust) {
+		assert amountCrust > 0: "Impossible collision.";
+		
+		if (size == target.length)
+			grow();
+		target[size] = targetPlate;
+		source[size] = sourcePlate;
+		worldX[size] = x;
+		worldY[size] = y;
+		crust[size] = amountCrust;
+		size++;
+	}
+	
+	public void clear() {
+		size = 0;
+	}
+	
+	/**
+	 * Group events by target plate with a stable counting sort. Afterwards
+	 * the events for plate p are eventAt(groupBegin(p)) up to but not
+	 * including eventAt(groupEnd(p)), in the order they were added.
+	 * @param numPlates Number of plates; every target must be below this.
+	 */
+	public void groupByTarget(int numPlates) {
+		if (groupStart.length < numPlates + 1)
+			groupStart = new int[numPlates + 1];
+		Arrays.fill(groupStart, 0, numPlates + 1, 0);
+		
+		for (int event = 0; event < size; event++)
+			groupStart[target[event] + 1]++;
+		for (int plate = 0; plate < numPlates; plate++)
+			groupStart[plate + 1] += groupStart[plate];
+		
+		// Fill each group from its end so the count can double as the cursor.
+		for (int event = size - 1; event >= 0; event--)
+			order[--groupStart[target[event] + 1]] = event;
+		// groupStart[p + 1] now holds the start of group p; shift back down.
+		System.arraycopy(groupStart, 1, groupStart, 0, numPlates);
+		groupStart[numPlates] = size;
+	}
+	
+	public int groupBegin(int plate) { return groupStart[plate]; }
+	public int groupEnd(int plate)   { return groupStart[plate + 1]; }
+	public int eventAt(int position) { return order[position]; }
+	
+	private void grow() {
+		int capacity = target.length * 2;
+		target = Arrays.copyOf(target, capacity);
+		source = Arrays.copyOf(source, capacity);
+		worldX = Arrays.copyOf(worldX, capacity);
+		worldY = Arrays.copyOf(worldY, capacity);
+		crust = Arrays.copyOf(crust, capacity);
+		order = new int[capacity];
+	}
+}
@@ -0,0 +1,23 @@
+package com.tepidpond.tum.PlateTectonics;
+
+/**
+ * The noise Lithosphere starts a world from, and adds to it at the end.
+ *
+ * SQUARE_DIAMOND is the original SquareDiamond, which draws from a single
+ * Random on one thread and makes a map one tile wider than the world. It is
+ * kept so worlds begun with it come out the same. TORUS_SQUARE_DIAMOND is
+ * TorusSquareDiamond, which is quicker and wraps seamlessly.
+ */
+public enum Fractal {
+	SQUARE_DIAMOND, TORUS_SQUARE_DIAMOND;
+
+	/** The one new worlds use. */
+	public static final Fractal DEFAULT = TORUS_SQUARE_DIAMOND;
+
+	/**
+	 * Side of the noise map for a world.
+	 */
+	int noiseSize(int mapSize) {
+		return this == SQUARE_DIAMOND ? mapSize + 1 : mapSize;
+	}
+}
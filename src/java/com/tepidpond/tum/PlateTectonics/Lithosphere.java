@@ -1,11 +1,26 @@
 package com.tepidpond.tum.PlateTectonics;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.lang.reflect.Array;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class Lithosphere {
+	// Bump whenever a change makes the same settings and seed produce a
+	// different world, so that cached results of the old code are not reused.
+	public static final int ENGINE_VERSION = 1;
 	private static final float SQRDMD_ROUGHNESS = 0.5f;
 	public static final float CONTINENTAL_BASE = 1.0f;
 	private static final float OCEANIC_BASE =     0.1f;
@@ -16,12 +31,21 @@ public class Lithosphere {
 	private static final boolean REGENERATE_CRUST = true;
 	private static final float BUOYANCY_BONUS = 3.0f;
 	private static final int MAX_BUOYANCY_AGE = 20;
+	// Parallel compositing: bands queued per pool thread and smallest band height.
+	private static final int BANDS_PER_THREAD = 4;
+	private static final int MIN_ROWS_PER_BAND = 16;
+	// Smallest world for which plates default to sparse storage.
+	private static final int SPARSE_PLATES_MIN_SIZE = 1024;
 	
-	private float worldMap[];  // denotes height of terrain of tiles
-	private int worldPlates[];   // denotes plate ownership of tiles.
+	private FloatBuffer worldMap;  // denotes height of terrain of tiles
+	private IntBuffer worldPlates;   // denotes plate ownership of tiles.
+	// Scratch maps for Update(), kept between generations.
+	private IntBuffer worldPlatesOld;
+	private IntBuffer worldAgeMap;
+	private final WorldBuffers buffers;
 	private Plate plates[];
-	private Stack<CollisionDetails> subductions[];
-	private Stack<CollisionDetails> collisions[];
+	private CollisionBuffer subductions = new CollisionBuffer();
+	private CollisionBuffer collisions = new CollisionBuffer();
 	
 	private int worldSurface;
 	private int worldSize;
@@ -33,19 +57,105 @@ public class Lithosphere {
 	private int maxCycles = 0;	// unlimited
 	private int numCycles = 0;	// number of times plate system has restarted
 	private int generations = 0;
+	private int updates = 0;	// calls to Update(), which unlike generations never resets
 	private int erosionPeriod = 1;
 	private float foldingRatio = 0.5f;
 	private float aggr_ratio_abs = 0.5f;
 	private float aggr_ratio_rel = 0.5f;
 	
-	public float[] getHeightmap() { return worldMap; }
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private boolean parallelCompositing = true;
+	private ForkJoinPool pool;
+	private CompositeBand[] compositeBands;
+	private int[] overlapTiles = new int[0];
+	private boolean sparsePlates;
+	private Fractal fractal;
+	
+	/**
+	 * Get the world's heightmap. With heap buffers this is the live map,
+	 * otherwise it is a copy on the heap, as large as the world; use
+	 * getHeightmapBuffer() to avoid copying.
+	 */
+	public float[] getHeightmap() {
+		if (worldMap.hasArray())
+			return worldMap.array();
+		float[] copy = new float[worldSurface];
+		FloatBuffer src = worldMap.duplicate();
+		src.clear();
+		src.get(copy);
+		return copy;
+	}
+	
+	/**
+	 * Get a read-only view of the world's heightmap, wherever it is stored.
+	 */
+	public FloatBuffer getHeightmapBuffer() { return worldMap.asReadOnlyBuffer(); }
 	
 	public int getMapSize() { return worldSize; }
+	/** The noise the world was started from. */
+	public Fractal getFractal() { return fractal; }
+	
+	/** Number of times the plates have been recreated so far. */
+	public int getCycle() { return numCycles; }
+	
+	/** Number of times Update() has been called, including before a resume(). */
+	public int getUpdateCount() { return updates; }
 	
 	// default mapSize = 512. Must be power of 2.
 	public Lithosphere(int mapSize, float percentSeaTiles, int erosion_period, float folding_ratio,
 			int aggr_ratio_abs, float aggr_ratio_rel, int num_cycles, int _numPlates, long seed) {
+		this(mapSize, percentSeaTiles, erosion_period, folding_ratio, aggr_ratio_abs, aggr_ratio_rel,
+				num_cycles, _numPlates, seed, mapSize >= SPARSE_PLATES_MIN_SIZE, WorldBuffers.forMapSize(mapSize));
+	}
+	
+	/**
+	 * @param fractal The noise to start from; see the last constructor.
+	 */
+	public Lithosphere(int mapSize, float percentSeaTiles, int erosion_period, float folding_ratio,
+			int aggr_ratio_abs, float aggr_ratio_rel, int num_cycles, int _numPlates, long seed,
+			Fractal fractal) {
+		this(mapSize, percentSeaTiles, erosion_period, folding_ratio, aggr_ratio_abs, aggr_ratio_rel,
+				num_cycles, _numPlates, seed, mapSize >= SPARSE_PLATES_MIN_SIZE, WorldBuffers.forMapSize(mapSize), fractal);
+	}
+	
+	/**
+	 * @param sparsePlates Store plates as tiles allocated where they have
+	 *                     crust, rather than as maps covering their whole
+	 *                     bounding box. Saves memory on large worlds, where
+	 *                     plates wrapping the world edge are as wide as the
+	 *                     world. The generated world is the same either way.
+	 */
+	public Lithosphere(int mapSize, float percentSeaTiles, int erosion_period, float folding_ratio,
+			int aggr_ratio_abs, float aggr_ratio_rel, int num_cycles, int _numPlates, long seed,
+			boolean sparsePlates) {
+		this(mapSize, percentSeaTiles, erosion_period, folding_ratio, aggr_ratio_abs, aggr_ratio_rel,
+				num_cycles, _numPlates, seed, sparsePlates, WorldBuffers.forMapSize(mapSize));
+	}
+	
+	/**
+	 * @param buffers Where to keep the world-sized maps. The generated world
+	 *                is the same whichever is used.
+	 */
+	public Lithosphere(int mapSize, float percentSeaTiles, int erosion_period, float folding_ratio,
+			int aggr_ratio_abs, float aggr_ratio_rel, int num_cycles, int _numPlates, long seed,
+			boolean sparsePlates, WorldBuffers buffers) {
+		// Constructors without a fractal keep making the worlds they always have.
+		this(mapSize, percentSeaTiles, erosion_period, folding_ratio, aggr_ratio_abs, aggr_ratio_rel,
+				num_cycles, _numPlates, seed, sparsePlates, buffers, Fractal.SQUARE_DIAMOND);
+	}
+	
+	/**
+	 * @param fractal The noise to start from. Worlds begun with one must be
+	 *                generated with it again to come out the same. The
+	 *                constructors without this parameter use SQUARE_DIAMOND.
+	 */
+	public Lithosphere(int mapSize, float percentSeaTiles, int erosion_period, float folding_ratio,
+			int aggr_ratio_abs, float aggr_ratio_rel, int num_cycles, int _numPlates, long seed,
+			boolean sparsePlates, WorldBuffers buffers, Fractal fractal) {
 
+		this.sparsePlates = sparsePlates;
+		this.fractal = fractal;
+		this.buffers = buffers;
 		this.maxCycles = num_cycles;
 		this.aggr_ratio_abs = aggr_ratio_abs;
 		this.aggr_ratio_rel = aggr_ratio_rel;
@@ -60,32 +170,30 @@ public class Lithosphere {
 		this.rand = new Random();
 		rand.setSeed(seed);
 		
-		// Setup for collision storage for update. This is complex because
-		// "Cannot create generic array of ..." error otherwise.
-		subductions = (Stack<CollisionDetails>[]) new Stack[numPlates];	
-		collisions = (Stack<CollisionDetails>[]) new Stack[numPlates];
-		for (int activePlate = 0; activePlate < numPlates; activePlate++) {
-			subductions[activePlate] = new Stack<CollisionDetails>();
-			collisions[activePlate] = new Stack<CollisionDetails>();
-		}
-
-		float tmpWorldMap[] = new float[(int) Math.pow(mapSize + 1, 2)];
-		
 		// Generate initial fractal map
-		if (!SquareDiamond.SqrDmd(tmpWorldMap, mapSize + 1, 1.0f, SQRDMD_ROUGHNESS, seed)) {
-			// Error unable to generate height map.
-		}
+		FloatBuffer tmpWorldMap = fractalNoise(seed);
 		
 		Util.normalizeHeightMap(tmpWorldMap);
 		float seaLevel = getSeaLevel(tmpWorldMap, percentSeaTiles, 5);
 		separateLandAndSea(tmpWorldMap, seaLevel);
 		
-		this.worldMap = new float[(int)Math.pow(mapSize, 2)];
-		this.worldPlates = new int[(int)Math.pow(mapSize, 2)];
-		Arrays.fill(worldPlates, numPlates);
+		this.worldPlates = buffers.allocateInts(worldSurface);
+		this.worldPlatesOld = buffers.allocateInts(worldSurface);
+		this.worldAgeMap = buffers.allocateInts(worldSurface);
+		WorldBuffers.fill(worldPlates, numPlates);
 		
-		for (int i = 0; i < mapSize; i++)
-			System.arraycopy(tmpWorldMap, i * (mapSize + 1), this.worldMap, i * mapSize, mapSize);
+		int noiseSize = fractal.noiseSize(mapSize);
+		if (noiseSize == mapSize) {
+			this.worldMap = tmpWorldMap;
+		} else {
+			this.worldMap = buffers.allocateFloats(worldSurface);
+			for (int i = 0; i < mapSize; i++) {
+				tmpWorldMap.limit(i * noiseSize + mapSize).position(i * noiseSize);
+				worldMap.position(i * mapSize);
+				worldMap.put(tmpWorldMap);
+			}
+		}
+		worldMap.clear();
 		
 		PlateArea[] plates = createPlates();
 		growPlates(plates);
@@ -95,20 +203,184 @@ public class Lithosphere {
 		generationsSinceCollision = 0;
 	}
 	
+	/**
+	 * Fractal noise of the world's Fractal, fractal.noiseSize() on a side.
+	 */
+	private FloatBuffer fractalNoise(long seed) {
+		int noiseSize = fractal.noiseSize(worldSize);
+		FloatBuffer noise = buffers.allocateFloats(noiseSize * noiseSize);
+		if (fractal == Fractal.SQUARE_DIAMOND)
+			SquareDiamond.SqrDmd(noise, noiseSize, 1.0f, SQRDMD_ROUGHNESS, seed);
+		else
+			TorusSquareDiamond.generate(noise, noiseSize, 1.0f, SQRDMD_ROUGHNESS, seed, parallelism > 1 ? getPool() : null);
+		return noise;
+	}
+	
+	/**
+	 * Continue a simulation saved by saveCheckpoint(), with the default
+	 * storage for its size.
+	 */
+	public static Lithosphere resume(File file) throws IOException {
+		Checkpoint.Reader in = new Checkpoint.Reader(file);
+		try {
+			return new Lithosphere(in, null, null);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Continue a simulation saved by saveCheckpoint(). Updating the result
+	 * gives the same world as updating the saved Lithosphere would have.
+	 * @param sparsePlates See the constructor. Need not match the saved one.
+	 * @param buffers See the constructor. Need not match the saved one.
+	 */
+	public static Lithosphere resume(File file, boolean sparsePlates, WorldBuffers buffers) throws IOException {
+		Checkpoint.Reader in = new Checkpoint.Reader(file);
+		try {
+			return new Lithosphere(in, sparsePlates, buffers);
+		} finally {
+			in.close();
+		}
+	}
+	
+	private Lithosphere(Checkpoint.Reader in, Boolean sparsePlates, WorldBuffers buffers) throws IOException {
+		if (in.getInt() != Checkpoint.MAGIC)
+			throw new IOException("Not a checkpoint.");
+		int version = in.getInt();
+		if (version < 1 || version > Checkpoint.VERSION)
+			throw new IOException("Unsupported checkpoint version.");
+		int mapSize = in.getInt();
+		if (mapSize < 1 || mapSize > 1 << 15)
+			throw new IOException("Corrupt checkpoint.");
+		this.worldSize = mapSize;
+		this.worldSurface = mapSize * mapSize;
+		this.sparsePlates = sparsePlates != null ? sparsePlates : mapSize >= SPARSE_PLATES_MIN_SIZE;
+		this.buffers = buffers != null ? buffers : WorldBuffers.forMapSize(mapSize);
+		
+		numPlates = in.getInt();
+		updates = in.getInt();
+		generations = in.getInt();
+		generationsSinceCollision = in.getInt();
+		numCycles = in.getInt();
+		maxCycles = in.getInt();
+		erosionPeriod = in.getInt();
+		foldingRatio = in.getFloat();
+		aggr_ratio_abs = in.getFloat();
+		aggr_ratio_rel = in.getFloat();
+		peakKineticEnergy = in.getFloat();
+		// Checkpoints from before there was a choice used SquareDiamond.
+		fractal = Fractal.SQUARE_DIAMOND;
+		if (version >= 2) {
+			int ordinal = in.getInt();
+			if (ordinal < 0 || ordinal >= Fractal.values().length)
+				throw new IOException("Corrupt checkpoint.");
+			fractal = Fractal.values()[ordinal];
+		}
+		try {
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(in.getBytes()));
+			rand = (Random)ois.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Corrupt checkpoint.", e);
+		} catch (ClassCastException e) {
+			throw new IOException("Corrupt checkpoint.", e);
+		}
+		
+		worldMap = this.buffers.allocateFloats(worldSurface);
+		worldPlates = this.buffers.allocateInts(worldSurface);
+		worldPlatesOld = this.buffers.allocateInts(worldSurface);
+		worldAgeMap = this.buffers.allocateInts(worldSurface);
+		in.getFloats(worldMap);
+		in.getInts(worldPlates);
+		
+		if (numPlates < 0 || numPlates > worldSurface)
+			throw new IOException("Corrupt checkpoint.");
+		plates = new Plate[numPlates];
+		for (int i = 0; i < numPlates; i++)
+			plates[i] = new Plate(in, worldSize, rand, this.sparsePlates);
+	}
+	
+	/**
+	 * Save everything needed to continue the simulation to a file, to be
+	 * read by resume(). The file is replaced only once the new checkpoint
+	 * is complete, so a crash while saving leaves the previous one intact.
+	 * 
+	 * Only the state carried from one Update() to the next is saved: the
+	 * world map and its owners, the plates and the random generator.
+	 */
+	public void saveCheckpoint(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		Checkpoint.Writer out = new Checkpoint.Writer(tmp);
+		try {
+			out.putInt(Checkpoint.MAGIC);
+			out.putInt(Checkpoint.VERSION);
+			out.putInt(worldSize);
+			out.putInt(numPlates);
+			out.putInt(updates);
+			out.putInt(generations);
+			out.putInt(generationsSinceCollision);
+			out.putInt(numCycles);
+			out.putInt(maxCycles);
+			out.putInt(erosionPeriod);
+			out.putFloat(foldingRatio);
+			out.putFloat(aggr_ratio_abs);
+			out.putFloat(aggr_ratio_rel);
+			out.putFloat(peakKineticEnergy);
+			out.putInt(fractal.ordinal());
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bytes);
+			oos.writeObject(rand);
+			oos.close();
+			out.putBytes(bytes.toByteArray());
+			
+			out.putFloats(worldMap);
+			out.putInts(worldPlates);
+			for (int i = 0; i < numPlates; i++)
+				plates[i].saveCheckpoint(out);
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
 	public void Update() {
+		updates++;
 		if (checkForStaticWorld()) {
 			restart();
 			return;
 		}
 
 		moveAndErodePlates();
-		int continentalCollisions = 0;
-		int worldPlatesOld[] = new int[worldPlates.length];
-		System.arraycopy(worldPlates, 0, worldPlatesOld, 0, worldPlates.length);
-		Arrays.fill(worldMap, 0);
-		Arrays.fill(worldPlates, Integer.MAX_VALUE);
-		int worldAgeMap[] = new int[worldSurface];
+		int continentalCollisions;
+		WorldBuffers.copy(worldPlates, worldPlatesOld);
+		WorldBuffers.fill(worldMap, 0);
+		WorldBuffers.fill(worldPlates, Integer.MAX_VALUE);
+		WorldBuffers.fill(worldAgeMap, 0);
+		
+		boolean parallel = parallelism > 1 && parallelCompositing && worldSize >= MIN_ROWS_PER_BAND * 2;
+		if (parallel || sparsePlates)
+			continentalCollisions = compositePlatesBanded(worldAgeMap, parallel);
+		else
+			continentalCollisions = compositePlates(worldAgeMap);
+		
+		if (continentalCollisions == 0) generationsSinceCollision++; else generationsSinceCollision = 0;
+		processSubductions();
+		processCollisions();
+		regenerateCrust(worldPlatesOld, worldAgeMap);
+
+		addSeaFloorUplift(worldAgeMap);
 		
+		generations++;
+	}
+	
+	/**
+	 * Copy every plate onto the world map in plate order, resolving overlaps
+	 * as they are found. Plates must not be sparse.
+	 * @param worldAgeMap Receives the age of the crust on top of each tile.
+	 * @return Number of continental collisions.
+	 */
+	private int compositePlates(IntBuffer worldAgeMap) {
+		int continentalCollisions = 0;
 		for (int activePlate = 0; activePlate < numPlates; activePlate++) {
 			Plate p = plates[activePlate];
 			int X0 = p.getLeft();
@@ -117,19 +389,20 @@ public class Lithosphere {
 			int Y1 = Y0 + p.getHeight();
 			float[] plateMap = p.getHeightmap();			
 			int[] plateAge = p.getTimestampMap();
+			int stride = p.getStride();
 			
-			for (int y = Y0, plateTile = 0; y < Y1; y++) for (int x = X0; x < X1; x++, plateTile++) {
+			for (int y = Y0, rowStart = p.getWindowOffset(); y < Y1; y++, rowStart += stride) for (int x = X0, plateTile = rowStart; x < X1; x++, plateTile++) {
 				int xMod = x % worldSize, yMod = y % worldSize;
 				int worldTile = yMod * worldSize + xMod;
 				
 				// Does this plate have crust here?
 				if (plateMap[plateTile] > 2 * Util.FLT_EPSILON) {
-					if (worldPlates[worldTile] >= numPlates) {	// No one here yet?
+					if (worldPlates.get(worldTile) >= numPlates) {	// No one here yet?
 						// activePlate becomes the owner of this tile if it's the first
 						// plate to have crust on it.
-						worldMap[worldTile] = plateMap[plateTile];
-						worldPlates[worldTile] = activePlate;
-						worldAgeMap[worldTile] = plateAge[plateTile];
+						worldMap.put(worldTile, plateMap[plateTile]);
+						worldPlates.put(worldTile, activePlate);
+						worldAgeMap.put(worldTile, plateAge[plateTile]);
 					} else {					
 						continentalCollisions += collectCollisions(worldAgeMap, activePlate, xMod, yMod, plateTile, worldTile);
 					}
@@ -137,33 +410,250 @@ public class Lithosphere {
 			} // for y... { for x ...
 		}
 		
-		if (continentalCollisions == 0) generationsSinceCollision++; else generationsSinceCollision = 0;
-		processSubductions();
-		processCollisions();
-		regenerateCrust(worldPlatesOld, worldAgeMap);
-
-		addSeaFloorUplift(worldAgeMap);
+		return continentalCollisions;
+	}
+	
+	/**
+	 * Banded version of compositePlates(), run in parallel or not.
+	 * 
+	 * The world is split into bands of rows. Each band copies the plates onto
+	 * its rows in plate order and records, rather than resolves, the tiles
+	 * where a plate lands on crust that is already there. Claiming a tile only
+	 * touches that tile and an owned tile never becomes free again, so the
+	 * bands cannot disagree with the serial code about who owns what.
+	 * 
+	 * Overlaps are then resolved on this thread in exactly the order the
+	 * serial loop meets them (by plate, then by tile within the plate), since
+	 * collectCollisions() mutates the plates and draws from the shared Random.
+	 * The result is bit-identical to compositePlates().
+	 * 
+	 * Sparse plates are always composited this way, in a single band when
+	 * not in parallel, as only the banded pass knows how to skip their
+	 * missing tiles.
+	 * 
+	 * @param worldAgeMap Receives the age of the crust on top of each tile.
+	 * @param parallel Split the first pass into bands on the pool.
+	 * @return Number of continental collisions.
+	 */
+	private int compositePlatesBanded(IntBuffer worldAgeMap, boolean parallel) {
+		int numBands = parallel ? Math.min(parallelism * BANDS_PER_THREAD, worldSize / MIN_ROWS_PER_BAND) : 1;
+		if (compositeBands == null || compositeBands.length != numBands) {
+			compositeBands = new CompositeBand[numBands];
+			for (int band = 0; band < numBands; band++)
+				compositeBands[band] = new CompositeBand(band * worldSize / numBands, (band + 1) * worldSize / numBands);
+		}
 		
-		generations++;
+		for (CompositeBand band: compositeBands) {
+			band.reinitialize();
+			band.worldAgeMap = worldAgeMap;
+			if (parallel)
+				getPool().execute(band);
+			else
+				band.invoke();
+		}
+		if (parallel)
+			for (CompositeBand band: compositeBands)
+				band.join();
+		
+		int continentalCollisions = 0;
+		for (int activePlate = 0; activePlate < numPlates; activePlate++) {
+			int numOverlaps = 0;
+			for (CompositeBand band: compositeBands)
+				numOverlaps += band.overlapCount[activePlate];
+			if (numOverlaps == 0)
+				continue;
+			
+			if (overlapTiles.length < numOverlaps)
+				overlapTiles = new int[Math.max(numOverlaps, overlapTiles.length * 2)];
+			numOverlaps = 0;
+			for (CompositeBand band: compositeBands) {
+				System.arraycopy(band.overlaps[activePlate], 0, overlapTiles, numOverlaps, band.overlapCount[activePlate]);
+				numOverlaps += band.overlapCount[activePlate];
+			}
+			// Bands wrap around the world edge, so restore the serial visiting order.
+			Arrays.sort(overlapTiles, 0, numOverlaps);
+			
+			Plate p = plates[activePlate];
+			int X0 = p.getLeft();
+			int Y0 = p.getTop();
+			int stride = p.getStride();
+			int windowOffset = p.getWindowOffset();
+			for (int i = 0; i < numOverlaps; i++) {
+				int plateTile = overlapTiles[i];
+				int xMod = (X0 + (plateTile - windowOffset) % stride) % worldSize;
+				int yMod = (Y0 + (plateTile - windowOffset) / stride) % worldSize;
+				int worldTile = yMod * worldSize + xMod;
+				continentalCollisions += collectCollisions(worldAgeMap, activePlate, xMod, yMod, plateTile, worldTile);
+			}
+		}
+		return continentalCollisions;
+	}
+	
+	/**
+	 * First pass of compositePlatesBanded() over world rows [rowBegin, rowEnd).
+	 */
+	private class CompositeBand extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final int rowBegin, rowEnd;
+		// Local indices of overlapping tiles for each plate, in visiting order.
+		final int[][] overlaps = new int[numPlates][16];
+		final int[] overlapCount = new int[numPlates];
+		IntBuffer worldAgeMap;
+		
+		CompositeBand(int rowBegin, int rowEnd) {
+			this.rowBegin = rowBegin;
+			this.rowEnd = rowEnd;
+		}
+		
+		@Override
+		protected void compute() {
+			Arrays.fill(overlapCount, 0);
+			for (int activePlate = 0; activePlate < numPlates; activePlate++) {
+				Plate p = plates[activePlate];
+				if (p.getTiles() != null) {
+					compositeTiles(activePlate);
+					continue;
+				}
+				int X0 = p.getLeft();
+				int Y0 = p.getTop();
+				int X1 = X0 + p.getWidth();
+				int Y1 = Y0 + p.getHeight();
+				float[] plateMap = p.getHeightmap();
+				int[] plateAge = p.getTimestampMap();
+				int stride = p.getStride();
+				
+				for (int y = Y0, rowStart = p.getWindowOffset(); y < Y1; y++, rowStart += stride) {
+					int yMod = y % worldSize;
+					if (yMod < rowBegin || yMod >= rowEnd)
+						continue;
+					for (int x = X0, plateTile = rowStart; x < X1; x++, plateTile++) {
+						if (plateMap[plateTile] > 2 * Util.FLT_EPSILON) {
+							int worldTile = yMod * worldSize + x % worldSize;
+							if (worldPlates.get(worldTile) >= numPlates) {
+								worldMap.put(worldTile, plateMap[plateTile]);
+								worldPlates.put(worldTile, activePlate);
+								worldAgeMap.put(worldTile, plateAge[plateTile]);
+							} else {
+								addOverlap(activePlate, plateTile);
+							}
+						}
+					}
+				}
+			}
+		}
+		
+		/**
+		 * compute() for one sparse plate, skipping tiles it has not allocated.
+		 */
+		private void compositeTiles(int activePlate) {
+			Plate p = plates[activePlate];
+			PlateTiles tiles = p.getTiles();
+			int X0 = p.getLeft();
+			int Y0 = p.getTop();
+			int width = p.getWidth();
+			int height = p.getHeight();
+			
+			for (int localY = 0; localY < height; localY++) {
+				int yMod = (Y0 + localY) % worldSize;
+				if (yMod < rowBegin || yMod >= rowEnd)
+					continue;
+				for (int localX = 0; localX < width; ) {
+					int runEnd = Math.min(width, tiles.tileEndX(localX));
+					float[] plateMap = tiles.heightTile(localX, localY);
+					if (plateMap == null) {
+						localX = runEnd;
+						continue;
+					}
+					int[] plateAge = tiles.timestampTile(localX, localY);
+					for (int cell = tiles.cell(localX, localY); localX < runEnd; localX++, cell++) {
+						if (plateMap[cell] > 2 * Util.FLT_EPSILON) {
+							int worldTile = yMod * worldSize + (X0 + localX) % worldSize;
+							if (worldPlates.get(worldTile) >= numPlates) {
+								worldMap.put(worldTile, plateMap[cell]);
+								worldPlates.put(worldTile, activePlate);
+								worldAgeMap.put(worldTile, plateAge[cell]);
+							} else {
+								// Sparse plates are indexed as if stride == width.
+								addOverlap(activePlate, localY * width + localX);
+							}
+						}
+					}
+				}
+			}
+		}
+		
+		private void addOverlap(int activePlate, int plateTile) {
+			int count = overlapCount[activePlate];
+			if (count == overlaps[activePlate].length)
+				overlaps[activePlate] = Arrays.copyOf(overlaps[activePlate], count * 2);
+			overlaps[activePlate][count] = plateTile;
+			overlapCount[activePlate] = count + 1;
+		}
+	}
+	
+	private ForkJoinPool getPool() {
+		if (pool == null)
+			pool = new ForkJoinPool(parallelism);
+		return pool;
+	}
+	
+	/**
+	 * Set the number of threads used by the parallel parts of Update().
+	 * Results do not depend on this setting.
+	 * @param threads Pool size. 1 runs everything on the calling thread.
+	 */
+	public void setParallelism(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Parallelism must be at least 1.");
+		if (threads == parallelism)
+			return;
+		if (pool != null)
+			pool.shutdown();
+		pool = null;
+		compositeBands = null;
+		parallelism = threads;
+	}
+
+	/**
+	 * Shut down the pool's threads. A later Update() starts a new pool, so
+	 * this is safe to call whenever the simulation is put aside.
+	 */
+	public void close() {
+		if (pool != null)
+			pool.shutdown();
+		pool = null;
+		compositeBands = null;
+	}
+	
+	/**
+	 * Choose between the serial and the banded, multi-threaded way of
+	 * copying plates onto the world map. Both produce identical worlds.
+	 * Compositing is always serial when parallelism is 1.
+	 * @param parallel True to composite on a fork-join pool (default).
+	 */
+	public void setParallelCompositing(boolean parallel) {
+		this.parallelCompositing = parallel;
 	}
 	
 	private void restart() {
 		if (++numCycles <= maxCycles || maxCycles == 0) {
 			generations = 0;
 			// Copy plates to world map.
-			int worldAge[] = new int[worldSurface];
-			Arrays.fill(worldMap, 0);
+			IntBuffer worldAge = worldAgeMap;
+			WorldBuffers.fill(worldAge, 0);
+			WorldBuffers.fill(worldMap, 0);
 			for (int activePlate = 0; activePlate < numPlates; activePlate++) {
 				int x0 = plates[activePlate].getLeft(),
 					y0 = plates[activePlate].getTop(),
 					x1 = x0 + plates[activePlate].getWidth(),
 					y1 = y0 + plates[activePlate].getHeight();
-				float[] plateMap = plates[activePlate].getHeightmap();
-				int[] plateAge = plates[activePlate].getTimestampMap();
-				for (int y = y0, tile = 0; y < y1; y++) {
-					for (int x = x0; x < x1; x++, tile++) {
-						worldMap[(y % worldSize) * worldSize + x % worldSize] += plateMap[tile];
-						worldAge[(y % worldSize) * worldSize + x % worldSize] = plateAge[tile];
+				Plate p = plates[activePlate];
+				int stride = p.getStride();
+				for (int y = y0, rowStart = p.getWindowOffset(); y < y1; y++, rowStart += stride) {
+					for (int x = x0, tile = rowStart; x < x1; x++, tile++) {
+						int worldTile = (y % worldSize) * worldSize + x % worldSize;
+						worldMap.put(worldTile, worldMap.get(worldTile) + p.getCrustAt(tile));
+						worldAge.put(worldTile, p.getTimestampAt(tile));
 					}
 				}
 			}
@@ -178,22 +668,17 @@ public class Lithosphere {
 				numPlates = 0;
 				addSeaFloorUplift(worldAge);
 				
-				int noiseArea = (int) Math.pow(worldSize + 1, 2.0);
-				float[] tmp = new float[noiseArea];
-				Arrays.fill(tmp, 0);
-				SquareDiamond.SqrDmd(tmp, worldSize + 1, 1.0f, SQRDMD_ROUGHNESS, rand.nextInt());
+				FloatBuffer tmp = fractalNoise(rand.nextInt());
 				Util.normalizeHeightMap(tmp);
 				
-				float[] tmp2 = new float[worldSurface];
-				for (int i = 0; i < worldSize; i++)
-					System.arraycopy(tmp, i * (worldSize + 1), tmp2, i * worldSize, worldSize);
-				
+				// The noise map may have more columns than the world.
+				int extraColumns = fractal.noiseSize(worldSize) - worldSize;
 				for (int i = 0; i < worldSurface; i++) {
-					
-					if (worldMap[i] > CONTINENTAL_BASE) {
-						worldMap[i] += tmp2[i] * 2;
+					float noise = tmp.get(i + i / worldSize * extraColumns);
+					if (worldMap.get(i) > CONTINENTAL_BASE) {
+						worldMap.put(i, worldMap.get(i) + noise * 2);
 					} else {
-						worldMap[i] = 0.8f * worldMap[i] + 0.2f * tmp2[i] * CONTINENTAL_BASE;
+						worldMap.put(i, 0.8f * worldMap.get(i) + 0.2f * noise * CONTINENTAL_BASE);
 					}
 				}
 			}
@@ -201,15 +686,52 @@ public class Lithosphere {
 	}
 	
 	private void moveAndErodePlates() {
+		boolean erode = erosionPeriod > 0 && generations % erosionPeriod == 0;
+		if (parallelism > 1 && numPlates > 1) {
+			// Each step only touches its own plate and none of them draw from
+			// the shared Random, so the plates can be processed in any order.
+			PlateStep[] steps = new PlateStep[numPlates];
+			for (int activePlate = 0; activePlate < numPlates; activePlate++) {
+				steps[activePlate] = new PlateStep(plates[activePlate], erode);
+				getPool().execute(steps[activePlate]);
+			}
+			// Wait for every plate before compositing.
+			for (PlateStep step: steps)
+				step.join();
+			return;
+		}
+		
 		for (int activePlate = 0; activePlate < numPlates; activePlate++) {
 			plates[activePlate].resetSegments();	// reset collision segments
-			if (erosionPeriod > 0 && generations % erosionPeriod == 0)
+			if (erode)
 				plates[activePlate].erode(CONTINENTAL_BASE);
 			
 			plates[activePlate].move();
 		}
 	}
 	
+	/**
+	 * Per-plate part of moveAndErodePlates(), run on the pool.
+	 */
+	private static class PlateStep extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Plate plate;
+		private final boolean erode;
+		
+		PlateStep(Plate plate, boolean erode) {
+			this.plate = plate;
+			this.erode = erode;
+		}
+		
+		@Override
+		protected void compute() {
+			plate.resetSegments();
+			if (erode)
+				plate.erode(CONTINENTAL_BASE);
+			plate.move();
+		}
+	}
+	
 	private boolean checkForStaticWorld() {
 		float totalVelocity = 0;
 		float totalKineticEnergy = 0;
@@ -229,21 +751,19 @@ public class Lithosphere {
 		return false;
 	}
 	
-	private int collectCollisions(int[] ageMap, int activePlate, int worldX, int worldY, int plateTile, int worldTile) {
+	private int collectCollisions(IntBuffer ageMap, int activePlate, int worldX, int worldY, int plateTile, int worldTile) {
 		Plate p = plates[activePlate];
-		float plateMap[] = p.getHeightmap();
-		int plateAge[] = p.getTimestampMap();
 		
 		// DO NOT ACCEPT HEIGHT EQUALITY! Equality leads to subduction
 		// of shore that 's barely above sea level. It's a lot less
 		// serious problem to treat very shallow waters as continent...
-		boolean prev_is_oceanic = worldMap[worldTile] < CONTINENTAL_BASE;
-		boolean this_is_oceanic = plateMap[plateTile] < CONTINENTAL_BASE;
+		boolean prev_is_oceanic = worldMap.get(worldTile) < CONTINENTAL_BASE;
+		boolean this_is_oceanic = p.getCrustAt(plateTile) < CONTINENTAL_BASE;
 
-		int prev_timestamp = plates[(int) worldPlates[worldTile]].getCrustTimestamp(worldX, worldY);
-		int this_timestamp = plateAge[plateTile];
-		boolean prev_is_bouyant = (worldMap[worldTile] > plateMap[plateTile]) ||
-			(Math.abs(worldMap[worldTile] - plateMap[plateTile]) < 2 * Util.FLT_EPSILON &&
+		int prev_timestamp = plates[(int) worldPlates.get(worldTile)].getCrustTimestamp(worldX, worldY);
+		int this_timestamp = p.getTimestampAt(plateTile);
+		boolean prev_is_bouyant = (worldMap.get(worldTile) > p.getCrustAt(plateTile)) ||
+			(Math.abs(worldMap.get(worldTile) - p.getCrustAt(plateTile)) < 2 * Util.FLT_EPSILON &&
 			 prev_timestamp >= this_timestamp);
 
 		// Handle subduction of oceanic crust as special case.
@@ -253,35 +773,33 @@ public class Lithosphere {
 			// The level of effect that subduction has
 			// is directly related to the amount of water
 			// on top of the subducting plate.
-			float sediment = OCEANIC_BASE * (CONTINENTAL_BASE - plateMap[plateTile]) / CONTINENTAL_BASE;
+			float sediment = OCEANIC_BASE * (CONTINENTAL_BASE - p.getCrustAt(plateTile)) / CONTINENTAL_BASE;
 
 			// Save collision to the receiving plate's list.
-			subductions[worldPlates[worldTile]].Push(
-					new CollisionDetails(activePlate, worldX, worldY, sediment));
+			subductions.add(worldPlates.get(worldTile), activePlate, worldX, worldY, sediment);
 
 			// Remove subducted oceanic lithosphere from plate.
 			// This is crucial for
 			// a) having correct amount of colliding crust (below)
 			// b) protecting subducted locations from receiving
 			//    crust from other subductions/collisions.
-			plates[activePlate].setCrust(worldX, worldY, plateMap[plateTile] - OCEANIC_BASE, this_timestamp);
+			plates[activePlate].setCrust(worldX, worldY, p.getCrustAt(plateTile) - OCEANIC_BASE, this_timestamp);
 
-			if (plateMap[plateTile] <= 0)
+			if (p.getCrustAt(plateTile) <= 0)
 				return 0;
 		} else if (prev_is_oceanic) {
-			float sediment = OCEANIC_BASE * (CONTINENTAL_BASE - worldMap[worldTile]) / CONTINENTAL_BASE;
+			float sediment = OCEANIC_BASE * (CONTINENTAL_BASE - worldMap.get(worldTile)) / CONTINENTAL_BASE;
 
-			subductions[activePlate].Push(
-					new CollisionDetails(worldPlates[worldTile], worldX, worldY, sediment));
+			subductions.add(activePlate, worldPlates.get(worldTile), worldX, worldY, sediment);
 
-			plates[worldPlates[worldTile]].setCrust(worldX, worldY, worldMap[worldTile] - OCEANIC_BASE, prev_timestamp);
-			worldMap[worldTile] -= OCEANIC_BASE;
+			plates[worldPlates.get(worldTile)].setCrust(worldX, worldY, worldMap.get(worldTile) - OCEANIC_BASE, prev_timestamp);
+			worldMap.put(worldTile, worldMap.get(worldTile) - OCEANIC_BASE);
 
-			if (worldMap[worldTile] <= 0)
+			if (worldMap.get(worldTile) <= 0)
 			{
-				worldPlates[worldTile] = activePlate;
-				worldMap[worldTile] = plateMap[plateTile];
-				ageMap[worldTile] = plateAge[plateTile];
+				worldPlates.put(worldTile, activePlate);
+				worldMap.put(worldTile, p.getCrustAt(plateTile));
+				ageMap.put(worldTile, p.getTimestampAt(plateTile));
 
 				return 0;
 			}
@@ -290,79 +808,88 @@ public class Lithosphere {
 		// Record collisions to both plates. This also creates
 		// continent segment at the collided location to plates.
 		int this_area = plates[activePlate].addCollision(worldX, worldY);
-		int prev_area = plates[(int) worldPlates[worldTile]].addCollision(worldX, worldY);
+		int prev_area = plates[(int) worldPlates.get(worldTile)].addCollision(worldX, worldY);
 		
 		if (this_area < prev_area) {
-			CollisionDetails cd = new CollisionDetails(worldPlates[worldTile], worldX, worldY, plateMap[plateTile] * foldingRatio);
+			float crust = p.getCrustAt(plateTile) * foldingRatio;
 
 				// Give some...
-			worldMap[worldTile] += cd.getCrust();
-			assert(!Float.isNaN(worldMap[worldTile]));
-			plates[(int) worldPlates[worldTile]].setCrust(worldX, worldY, worldMap[worldTile], plateAge[plateTile]);
+			worldMap.put(worldTile, worldMap.get(worldTile) + crust);
+			assert(!Float.isNaN(worldMap.get(worldTile)));
+			plates[(int) worldPlates.get(worldTile)].setCrust(worldX, worldY, worldMap.get(worldTile), p.getTimestampAt(plateTile));
 
 			// And take some.
-			plates[activePlate].setCrust(worldX, worldY, plateMap[plateTile] * (1.0f - foldingRatio), plateAge[plateTile]);
+			plates[activePlate].setCrust(worldX, worldY, p.getCrustAt(plateTile) * (1.0f - foldingRatio), p.getTimestampAt(plateTile));
 
 			// Add collision to the earlier plate's list.
-			collisions[activePlate].Push(cd);
+			collisions.add(activePlate, worldPlates.get(worldTile), worldX, worldY, crust);
 		} else {
-			CollisionDetails cd = new CollisionDetails(activePlate, worldX, worldY, worldMap[worldTile] * foldingRatio);
-			plates[activePlate].setCrust(worldX, worldY, plateMap[plateTile] + cd.getCrust(), ageMap[worldTile]);
-			plates[(int) worldPlates[worldTile]].setCrust(worldX, worldY, worldMap[worldTile] * (1.0f - foldingRatio), ageMap[worldTile]);
-			collisions[(int) worldPlates[worldTile]].Push(cd);
+			float crust = worldMap.get(worldTile) * foldingRatio;
+			plates[activePlate].setCrust(worldX, worldY, p.getCrustAt(plateTile) + crust, ageMap.get(worldTile));
+			plates[(int) worldPlates.get(worldTile)].setCrust(worldX, worldY, worldMap.get(worldTile) * (1.0f - foldingRatio), ageMap.get(worldTile));
+			collisions.add(worldPlates.get(worldTile), activePlate, worldX, worldY, crust);
 
 			// Give the location to the larger plate.
-			assert(!Float.isNaN(plateMap[plateTile]));
-			worldMap[worldTile] = plateMap[plateTile];
-			worldPlates[worldTile] = activePlate;
-			ageMap[worldTile] = plateAge[plateTile];
+			assert(!Float.isNaN(p.getCrustAt(plateTile)));
+			worldMap.put(worldTile, p.getCrustAt(plateTile));
+			worldPlates.put(worldTile, activePlate);
+			ageMap.put(worldTile, p.getTimestampAt(plateTile));
 		}
 		return 1;
 	}
 	
 	private void processSubductions() {
-		// Process all subductions
+		// Process all subductions, grouped by receiving plate.
+		subductions.groupByTarget(numPlates);
 		for (int activePlate = 0; activePlate < numPlates; activePlate++) {
-			for (CollisionDetails cd: subductions[activePlate]) {
+			for (int i = subductions.groupBegin(activePlate); i < subductions.groupEnd(activePlate); i++) {
+				int event = subductions.eventAt(i);
+				Plate source = plates[subductions.getSource(event)];
 				plates[activePlate].addCrustBySubduction(
-					cd.getX(), cd.getY(), cd.getCrust(), generations,
-					plates[cd.getIndex()].vX, plates[cd.getIndex()].vY);
+					subductions.getX(event), subductions.getY(event), subductions.getCrust(event), generations,
+					source.vX, source.vY);
 			}
-			subductions[activePlate].clear();
 		}
+		subductions.clear();
 	}
 	
 	private void processCollisions() {
+		collisions.groupByTarget(numPlates);
 		for (int activePlate = 0; activePlate < numPlates; activePlate++) {
-			for (CollisionDetails cd: collisions[activePlate]) {
-				plates[activePlate].applyFriction(cd.getCrust());
-				plates[cd.getIndex()].applyFriction(cd.getCrust());
+			for (int i = collisions.groupBegin(activePlate); i < collisions.groupEnd(activePlate); i++) {
+				int event = collisions.eventAt(i);
+				Plate source = plates[collisions.getSource(event)];
+				int x = collisions.getX(event), y = collisions.getY(event);
+				float crust = collisions.getCrust(event);
+				
+				plates[activePlate].applyFriction(crust);
+				source.applyFriction(crust);
 				
-				CollisionStatistic csPlateA = plates[activePlate].getCollisionInfo(cd.getX(), cd.getY());
-				CollisionStatistic csPlateB = plates[cd.getIndex()].getCollisionInfo(cd.getX(), cd.getY());
+				CollisionStatistic csPlateA = plates[activePlate].getCollisionInfo(x, y);
+				CollisionStatistic csPlateB = source.getCollisionInfo(x, y);
 				int collisionCount = Math.min(csPlateA.Collisions, csPlateB.Collisions);
 				float collisionRatio = Math.max(csPlateA.CollidedRatio, csPlateB.CollidedRatio);
 				
 				if ((collisionCount > aggr_ratio_abs) | (collisionRatio > aggr_ratio_rel)) {
-					float amount = plates[activePlate].aggregateCrust(plates[cd.getIndex()], cd.getX(), cd.getY());
-					plates[cd.getIndex()].collide(plates[activePlate], cd.getX(), cd.getY(), amount);
+					float amount = plates[activePlate].aggregateCrust(source, x, y);
+					source.collide(plates[activePlate], x, y, amount);
 				}
 			}
-			collisions[activePlate].clear();
 		}
+		collisions.clear();
 	}
 	
-	private void regenerateCrust(int[] worldPlatesOld, int[] worldAgeMap) {
+	private void regenerateCrust(IntBuffer worldPlatesOld, IntBuffer worldAgeMap) {
 		if (REGENERATE_CRUST) {
 			for (int y = 0; y < worldSize; y++) {
 				for (int x = 0; x < worldSize; x++) {
 					int worldTile = Util.getTile(x, y, worldSize);
-					if (worldPlates[worldTile] >= numPlates) {
-						assert worldPlatesOld[worldTile] < numPlates: "Previous index map tile has no owner!";
-						worldPlates[worldTile] = worldPlatesOld[worldTile];
-						worldAgeMap[worldTile] = generations;
-						worldMap[worldTile] = OCEANIC_BASE * BUOYANCY_BONUS;
-						plates[(int) worldPlates[worldTile]].setCrust(x, y, OCEANIC_BASE, generations);
+					if (worldPlates.get(worldTile) >= numPlates) {
+						assert worldPlatesOld.get(worldTile) < numPlates: "Previous index map tile has no owner!";
+						worldPlates.put(worldTile, worldPlatesOld.get(worldTile));
+						worldAgeMap.put(worldTile, generations);
+						worldMap.put(worldTile, OCEANIC_BASE * BUOYANCY_BONUS);
+						plates[(int) worldPlates.get(worldTile)].setCrust(x, y, OCEANIC_BASE, generations);
 					}
 				}
 			}
@@ -373,19 +900,19 @@ public class Lithosphere {
 	 * Adds some "virginity buoyancy" to all pixels for a visual boost.
 	 * @param worldAgeMap
 	 */
-	private void addSeaFloorUplift(int[] worldAgeMap) {
+	private void addSeaFloorUplift(IntBuffer worldAgeMap) {
 		if (BUOYANCY_BONUS > 0) {
-			for (int worldTile = 0; worldTile < worldMap.length; worldTile++) {
+			for (int worldTile = 0; worldTile < worldSurface; worldTile++) {
 				// If it has been not more than MAX_BUOYANCY_AGE generations since the sea floor
 				// was created from magma, increase the height by a decreasing amount.
-				float buoyancyRatio = (MAX_BUOYANCY_AGE - (generations - worldAgeMap[worldTile])) / (float)MAX_BUOYANCY_AGE;
-				if (buoyancyRatio > 0 && worldMap[worldTile] < CONTINENTAL_BASE)
-					worldMap[worldTile] += buoyancyRatio * BUOYANCY_BONUS * OCEANIC_BASE; 
+				float buoyancyRatio = (MAX_BUOYANCY_AGE - (generations - worldAgeMap.get(worldTile))) / (float)MAX_BUOYANCY_AGE;
+				if (buoyancyRatio > 0 && worldMap.get(worldTile) < CONTINENTAL_BASE)
+					worldMap.put(worldTile, worldMap.get(worldTile) + buoyancyRatio * BUOYANCY_BONUS * OCEANIC_BASE); 
 			}
 		}
 	}
 	
-	private PlateArea[] createPlates() {
+	PlateArea[] createPlates() {
 		ArrayList<Integer> plateCenters = new ArrayList<Integer>();
 		int worldTile;
 		for (int i = 0; i < numPlates; i++) {
@@ -403,8 +930,8 @@ public class Lithosphere {
 		return plates;
 	}
 	
-	private void growPlates(PlateArea[] plates) {
-		Arrays.fill(worldPlates, numPlates);	// initialize terrain-ownership map
+	void growPlates(PlateArea[] plates) {
+		WorldBuffers.fill(worldPlates, numPlates);	// initialize terrain-ownership map
 		
 		int maxBorder = 1;
 		int iterations = 0;
@@ -433,8 +960,8 @@ public class Lithosphere {
 				// If the N/S/E/W tile is un-owned, claim it for the active plate
 				// and add it to that plate's border.
 				for (int tile: tiles) {
-					if (worldPlates[tile] >= numPlates) {
-						worldPlates[tile] = activePlate;
+					if (worldPlates.get(tile) >= numPlates) {
+						worldPlates.put(tile, activePlate);
 						plates[activePlate].pushBorder(tile);
 					}
 				}
@@ -461,42 +988,42 @@ public class Lithosphere {
 				for (int localX = 0; localX < plateWdt; localX++) {
 					int worldTile = Util.getTile(localX + x0, localY + y0, worldSize);
 					int plateTile = Util.getTile(localX, localY, plateWdt, plateHgt);
-					if (worldPlates[worldTile] == activePlate) {
-						assert(!Float.isNaN(worldMap[worldTile]));
-						plateHM[plateTile] = worldMap[worldTile];
+					if (worldPlates.get(worldTile) == activePlate) {
+						assert(!Float.isNaN(worldMap.get(worldTile)));
+						plateHM[plateTile] = worldMap.get(worldTile);
 					} else {
 						plateHM[plateTile] = 0;
 					}
 				}
 			}
 			
-			plates[activePlate] = new Plate(plateHM, plateWdt, x0, y0, activePlate, worldSize, rand);
+			plates[activePlate] = new Plate(plateHM, plateWdt, x0, y0, activePlate, worldSize, rand, sparsePlates);
 		}
 		return plates;
 	}
 	
-	private static void separateLandAndSea(float heightMap[], float seaLevel) {
-		for (int i = 0; i < heightMap.length; i++) {
-			if (heightMap[i] > seaLevel)
-				heightMap[i] += CONTINENTAL_BASE;
+	private static void separateLandAndSea(FloatBuffer heightMap, float seaLevel) {
+		for (int i = 0; i < heightMap.capacity(); i++) {
+			if (heightMap.get(i) > seaLevel)
+				heightMap.put(i, heightMap.get(i) + CONTINENTAL_BASE);
 			else
-				heightMap[i] = OCEANIC_BASE;			
+				heightMap.put(i, OCEANIC_BASE);
 		}
 	}
 	
 	// Calculate height of sea giving desired sea/continent ratio
-	private static float getSeaLevel(float heightMap[], float percentSeaTiles, int maxIterations) {
+	private static float getSeaLevel(FloatBuffer heightMap, float percentSeaTiles, int maxIterations) {
 		if (percentSeaTiles >= 1.0f) return 1.0f;	// all sea
 		if (percentSeaTiles <= 0.0f) return 0.0f;	// all land
 		
-		int mapArea = heightMap.length;
+		int mapArea = heightMap.capacity();
 		float seaThreshold = 0.5f;				// start middle
 		int maxLandTiles = (int)(mapArea * (1.0f - percentSeaTiles));
 		int maxSeaTiles = (int)(mapArea * percentSeaTiles);
 		for(int i = 1; i <= maxIterations; i++) {
 			int landTiles = 0, seaTiles = 0;
 			for (int j = 0; j < mapArea; j++) {
-				if (heightMap[j] > seaThreshold)
+				if (heightMap.get(j) > seaThreshold)
 					landTiles++;
 				else
 					seaTiles++;
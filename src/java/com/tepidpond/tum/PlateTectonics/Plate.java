@@ -1,30 +1,15 @@
 package com.tepidpond.tum.PlateTectonics;
 
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.Random;
 import java.util.Vector;
 
 import org.lwjgl.util.vector.Vector2f;
 
 public class Plate {
-	private class TileIndex {
-		final int I;
-		final int X;
-		final int Y;
-		public TileIndex(int X, int Y) {
-			X = (X + mapSize) % mapSize;
-			Y = (Y + mapSize) % mapSize;
-			if (Y >= height || Y < 0 || X >= width || X < 0)
-				throw new IllegalArgumentException("Coordinates outside of plate!");
-			this.I = Y * width + X;
-			this.X = X;
-			this.Y = Y;
-		}
-		public TileIndex(int index) {
-			this(index % width, index / width);
-		}
-	}
+	// Returned by getLocalIndex() for coordinates that are not on the plate.
+	static final int OFF_PLATE = -1;
 	
 	private static final float DEFORMATION_WEIGHT = 5f;
 	private static final float INITIAL_SPEED = 1.0f;
@@ -38,9 +23,22 @@ public class Plate {
 	private int[] timestampMap;
 	// Which collision segment is responsible for the given tile.
 	private int[] segmentOwnerMap;
+	// Scratch for erode(), swapped with heightMap on every pass.
+	private float[] erosionBuffer;
+	private final int[] lowerNeighbors = new int[4];
+	// Scratch for createSegment().
+	private int[] segmentBorder = new int[64];
+	private final int[] segmentNeighbors = new int[4];
 	// Dimensions and locations of plate in world coordinates
 	private float left, top;
 	private int width, height;
+	// The maps above are backing buffers of stride x capacityRows tiles. The
+	// plate's width x height window starts at windowOffset and the slack
+	// around it, which is always empty, lets the plate grow in place.
+	private int stride, capacityRows, windowOffset;
+	// Sparse storage used instead of the maps above, if not null. The
+	// window is then always stride == width and windowOffset == 0.
+	private PlateTiles tiles;
 	// Size of world map
 	private int mapSize;
 	
@@ -62,13 +60,26 @@ public class Plate {
 	int getTop()         {return (int)top;}
 	int getHeight()      {return height;}
 	int getWidth()       {return width;}
+	int getStride()      {return stride;}
+	int getWindowOffset() {return windowOffset;}
 	Boolean isEmpty()    {return M<=0;} 
 	
 	public Plate(float[] plateData, int plateMapWidth, int xOrigin, int yOrigin, int plateAge, int mapSize, Random rand) {
+		this(plateData, plateMapWidth, xOrigin, yOrigin, plateAge, mapSize, rand, false);
+	}
+	
+	/**
+	 * @param sparse Keep the plate's maps in PlateTiles rather than in arrays
+	 *               the size of its bounding box. Results are the same.
+	 */
+	public Plate(float[] plateData, int plateMapWidth, int xOrigin, int yOrigin, int plateAge, int mapSize, Random rand, boolean sparse) {
 		if (plateData.length < 1) return;
 		
 		this.width = plateMapWidth;
 		this.height = plateData.length / plateMapWidth;
+		this.stride = width;
+		this.capacityRows = height;
+		this.windowOffset = 0;
 		this.mapSize = mapSize;
 		this.M = 0;
 		this.left = xOrigin;
@@ -82,9 +93,7 @@ public class Plate {
 		double angle = 2 * Math.PI * rand.nextDouble();
 		
 		// Save basic pre-defined data.
-		this.heightMap = new float[area];
-		this.timestampMap = new int[area];
-		this.segmentOwnerMap = new int[area];
+		allocateStorage(sparse);
 		
 		// Establish initial velocity and direction.
 		vX = (float)Math.cos(angle) * INITIAL_SPEED;
@@ -93,25 +102,23 @@ public class Plate {
 		
 		// Intended for random circular motion of plate. Unused.
 		//this.alpha = -rand.nextInt(1) * Math.PI * 0.01 * rand.nextFloat();
-		Arrays.fill(segmentOwnerMap, Integer.MAX_VALUE);
-		
 		
 		// Clone heightMap data, calculate center of mass and total mass.
-		for (int i = 0; i < heightMap.length; i++) {
-			TileIndex ti = new TileIndex(i);
+		for (int i = 0; i < area; i++) {
 			// Clone map data and count crust mass.
-			M += heightMap[ti.I] = plateData[ti.I];
+			M += plateData[i];
+			setCrustAt(i, plateData[i]);
 
 			// Calculate center coordinates weighted by mass.
-			R_x += ti.X * heightMap[ti.I];
-			R_y += ti.Y * heightMap[ti.I];
+			R_x += (i % width) * plateData[i];
+			R_y += (i / width) * plateData[i];
 
 			// Set the age of ALL points in this plate to same
 			// value. The right thing to do would be to simulate
 			// the generation of new oceanic crust as it he plate
 			// had been moving to its current direction until all
 			// plate's (oceanic) crust receives an age.
-			this.timestampMap[ti.I] = plateData[ti.I] > 0 ? plateAge : 0;
+			setTimestampAt(i, plateData[i] > 0 ? plateAge : 0);
 		}
 		
 		// Normalize center of mass.
@@ -126,6 +133,108 @@ public class Plate {
 		}
 	}
 	
+	/**
+	 * Restore a plate saved by saveCheckpoint().
+	 * @param sparse Storage to use; it need not match the saved plate's.
+	 */
+	Plate(Checkpoint.Reader in, int mapSize, Random rand, boolean sparse) throws IOException {
+		this.mapSize = mapSize;
+		this.rand = rand;
+		left = in.getFloat();
+		top = in.getFloat();
+		width = in.getInt();
+		height = in.getInt();
+		if (width < 1 || height < 1 || width > mapSize || height > mapSize)
+			throw new IOException("Corrupt checkpoint.");
+		M = in.getFloat();
+		invMass = in.getFloat();
+		R_x = in.getFloat();
+		R_y = in.getFloat();
+		Velocity = in.getFloat();
+		vX = in.getFloat();
+		vY = in.getFloat();
+		dX = in.getFloat();
+		dY = in.getFloat();
+		
+		stride = width;
+		capacityRows = height;
+		windowOffset = 0;
+		allocateStorage(sparse);
+		
+		int area = width * height;
+		for (int index = 0; index < area; ) {
+			index += in.getInt();
+			int runEnd = index + in.getInt();
+			if (index < 0 || runEnd < index || runEnd > area)
+				throw new IOException("Corrupt checkpoint.");
+			for (; index < runEnd; index++) {
+				setCrustAt(index, in.getFloat());
+				setTimestampAt(index, in.getInt());
+			}
+		}
+	}
+	
+	/**
+	 * Write the plate's state for the constructor above to read back.
+	 * 
+	 * Collision segments are not saved, as they are reset before they are
+	 * next used. Crust is written as runs of non-empty tiles, each preceded
+	 * by the number of empty tiles skipped and the length of the run.
+	 */
+	void saveCheckpoint(Checkpoint.Writer out) throws IOException {
+		out.putFloat(left);
+		out.putFloat(top);
+		out.putInt(width);
+		out.putInt(height);
+		out.putFloat(M);
+		out.putFloat(invMass);
+		out.putFloat(R_x);
+		out.putFloat(R_y);
+		out.putFloat(Velocity);
+		out.putFloat(vX);
+		out.putFloat(vY);
+		out.putFloat(dX);
+		out.putFloat(dY);
+		
+		int area = width * height;
+		int previousEnd = 0;
+		for (int i = 0; i < area; ) {
+			if (isBlank(windowIndex(i))) {
+				i++;
+				continue;
+			}
+			int runEnd = i + 1;
+			while (runEnd < area && !isBlank(windowIndex(runEnd)))
+				runEnd++;
+			out.putInt(i - previousEnd);
+			out.putInt(runEnd - i);
+			for (; i < runEnd; i++) {
+				out.putFloat(getCrustAt(windowIndex(i)));
+				out.putInt(getTimestampAt(windowIndex(i)));
+			}
+			previousEnd = runEnd;
+		}
+		if (previousEnd < area) {
+			out.putInt(area - previousEnd);
+			out.putInt(0);
+		}
+	}
+	
+	/**
+	 * Index of the i-th tile of the window, counting row by row.
+	 */
+	private int windowIndex(int i) {
+		return windowOffset + (i / width) * stride + i % width;
+	}
+	
+	/**
+	 * True if the tile holds nothing a checkpoint has to save. Compares bits
+	 * so that negative zero crust is kept.
+	 */
+	private boolean isBlank(int index) {
+		return Float.floatToRawIntBits(getCrustAt(index)) == 0 && getTimestampAt(index) == 0;
+	}
+	
 	/**
 	 * Increment collision counter of the continent at given location.
 	 * @param worldX X coordinate of collision point on world map.
@@ -133,11 +242,12 @@ public class Plate {
 	 * @return Surface area of the collided continent (HACK!)
 	 */
 	int addCollision(int worldX, int worldY) {
-		TileIndex tiColl = getLocalTile(worldX, worldY);
+		int index = getLocalIndex(worldX, worldY);
+		assert index != OFF_PLATE: "addCollision: out of map bounds!";
 		
-		int segment = segmentOwnerMap[tiColl.I];
+		int segment = segmentAt(index);
 		if (segment >= collisionSegments.size())
-			segment = createSegment(tiColl);
+			segment = createSegment(index);
 		assert segment < collisionSegments.size(): "Could not create segment.";
 		
 		collisionSegments.get(segment).Collisions++;
@@ -155,17 +265,17 @@ public class Plate {
 	void addCrustByCollision(int worldX, int worldY, float amount, int creationTime) {
 		worldX %= mapSize; worldY %= mapSize;
 		setCrust(worldX, worldY, getCrust(worldX, worldY) + amount, creationTime);
-		try {
-			TileIndex tiColl = getLocalTile(worldX, worldY);
-
-			segmentOwnerMap[tiColl.I] = activeContinentID;
-			CollisionSegment seg = collisionSegments.get(activeContinentID);
-			seg.Area++;
-			
-			seg.UpdateBoundsToInclude(tiColl.X, tiColl.Y);
-		} catch (IllegalArgumentException e) {
+		int index = getLocalIndex(worldX, worldY);
+		if (index == OFF_PLATE) {
 			assert false: String.format("Aggregation went overboard! (%d, %d) in [%d,%d]-[%d,%d]", worldX, worldY, left, top, left + width - 1, top + height - 1);
+			return;
 		}
+
+		setSegmentAt(index, activeContinentID);
+		CollisionSegment seg = collisionSegments.get(activeContinentID);
+		seg.Area++;
+		
+		seg.UpdateBoundsToInclude(indexX(index), indexY(index));
 	}
 	
 	/**
@@ -184,41 +294,39 @@ public class Plate {
 	 * @param dY Y direction of the subducting plate.
 	 */
 	void addCrustBySubduction(int worldX, int worldY, float amount, int creationTime, float dX, float dY) {
-		try {
-			TileIndex tiSubd = getLocalTile(worldX, worldY);
-	
-			float dotProduct = vX * dX + vY * dY;
-			if (dotProduct > 0) {
-				dX -= vX;
-				dY -= vY;
-			}
-			
-			// o = +- 3 * R^3
-			float offset = (rand.nextBoolean() ? 1 : -1) * 3.0f * (float)Math.pow(rand.nextFloat(), 3.0);
-			dX = 10 * dX + offset;
-			dY = 10 * dY + offset;
-			
-			try {
-				tiSubd = new TileIndex(tiSubd.X + (int)dX, tiSubd.Y + (int)dY);
-			
-				if (heightMap[tiSubd.I] > 0) {
-					creationTime = (timestampMap[tiSubd.I] + creationTime)/2;
-					timestampMap[tiSubd.I] = amount > 0 ? creationTime : 0;
-				
-					heightMap[tiSubd.I] += amount;
-					M += amount;
-					if (M > 0)
-						invMass = 1f / M;
-					else
-						invMass = 0f;
-				}
-			} catch (IllegalArgumentException e) {
-				// selected position is outside the plate. Ideally we'd try again.
-			}
-		} catch (IllegalArgumentException e) {
+		int index = getLocalIndex(worldX, worldY);
+		if (index == OFF_PLATE) {
 			// request position is outside the plate. This is a caller error.
 			assert false: String.format("Subduction origin not on plate!\n%d, %d @ [%f, %f]x[%d, %d]\n",
 					worldX, worldY, left, top, width, height);
+			return;
+		}
+
+		float dotProduct = vX * dX + vY * dY;
+		if (dotProduct > 0) {
+			dX -= vX;
+			dY -= vY;
+		}
+		
+		// o = +- 3 * R^3
+		float offset = (rand.nextBoolean() ? 1 : -1) * 3.0f * (float)Math.pow(rand.nextFloat(), 3.0);
+		dX = 10 * dX + offset;
+		dY = 10 * dY + offset;
+		
+		index = localIndex(indexX(index) + (int)dX, indexY(index) + (int)dY);
+		if (index == OFF_PLATE)
+			return;	// selected position is outside the plate. Ideally we'd try again.
+		
+		if (getCrustAt(index) > 0) {
+			creationTime = (getTimestampAt(index) + creationTime)/2;
+			setTimestampAt(index, amount > 0 ? creationTime : 0);
+		
+			setCrustAt(index, getCrustAt(index) + amount);
+			M += amount;
+			if (M > 0)
+				invMass = 1f / M;
+			else
+				invMass = 0f;
 		}
 	}
 	
@@ -240,61 +348,64 @@ public class Plate {
 	 * @return Amount of crust added to destination plate.
 	 */
 	float aggregateCrust(Plate plate, int worldX, int worldY) {
-		try {
-			TileIndex tiAggr = getLocalTile(worldX, worldY);
+		int index = getLocalIndex(worldX, worldY);
+		if (index == OFF_PLATE) {
+			assert false: "Aggregating beyond plate limits!";
+			return 0;
+		}
 
-			int segmentID = segmentOwnerMap[tiAggr.I];
-			
-			// This check forces the caller to do things in proper order!
-			//
-			// Usually continents collide at several locations simultaneously.
-			// Thus if this segment that is being merged now is removed from
-			// segmentation bookkeeping, then the next point of collision that is
-			// processed during the same iteration step would cause the test
-			// below to be true and system would experience a premature abort.
-			//
-			// Therefore, segmentation bookkeeping is left intact. It doesn't
-			// cause significant problems because all crust is cleared and empty
-			// points are not processed at all.		
-			assert segmentID < collisionSegments.size(): String.format("Trying to aggregate without deforming first at (%d, %d).\n", worldX, worldY);
-			CollisionSegment segment = collisionSegments.elementAt(segmentID);
-			
-			// One continent may have many points of collision. If one of them
-			// causes continent to aggregate then all successive collisions and
-			// attempts of aggregation would necessarily change nothing at all,
-			// because the continent was removed from this plate earlier!		
-			if (segment.Area == 0)
-				return 0;	// Ignore empty continents.
-			
-			plate.selectCollisionSegment(worldX, worldY);
-			
-			/* System.out.printf("Aggregating segment [%d, %d]x[%d, %d] vs. [%d, %d]@[%d, %d]\n",
-					segment.X0, segment.Y0, segment.X1, segment.Y1, width, height, localX, localY); */
+		int segmentID = segmentAt(index);
+		
+		// This check forces the caller to do things in proper order!
+		//
+		// Usually continents collide at several locations simultaneously.
+		// Thus if this segment that is being merged now is removed from
+		// segmentation bookkeeping, then the next point of collision that is
+		// processed during the same iteration step would cause the test
+		// below to be true and system would experience a premature abort.
+		//
+		// Therefore, segmentation bookkeeping is left intact. It doesn't
+		// cause significant problems because all crust is cleared and empty
+		// points are not processed at all.		
+		assert segmentID < collisionSegments.size(): String.format("Trying to aggregate without deforming first at (%d, %d).\n", worldX, worldY);
+		CollisionSegment segment = collisionSegments.elementAt(segmentID);
+		
+		// One continent may have many points of collision. If one of them
+		// causes continent to aggregate then all successive collisions and
+		// attempts of aggregation would necessarily change nothing at all,
+		// because the continent was removed from this plate earlier!		
+		if (segment.Area == 0)
+			return 0;	// Ignore empty continents.
+		
+		plate.selectCollisionSegment(worldX, worldY);
+		
+		/* System.out.printf("Aggregating segment [%d, %d]x[%d, %d] vs. [%d, %d]@[%d, %d]\n",
+				segment.X0, segment.Y0, segment.X1, segment.Y1, width, height, localX, localY); */
 
-			worldX += mapSize; worldY += mapSize;
-			float M_old = M;
-			
-			for (int iY = segment.Y0; iY <= segment.Y1; iY++) {
-				for (int iX = segment.X0; iX <= segment.X1; iX++) {
-					TileIndex tiSeg = new TileIndex(iX, iY);
-					
-					if (segmentOwnerMap[tiSeg.I] == segmentID && heightMap[tiSeg.I] > 0) {
-						// Add the crust to the other plate.
-						plate.addCrustByCollision(tiSeg.X + (int)left, tiSeg.Y + (int)top, heightMap[tiSeg.I], timestampMap[tiSeg.I]);					
+		worldX += mapSize; worldY += mapSize;
+		float M_old = M;
+		
+		for (int iY = segment.Y0; iY <= segment.Y1; iY++) {
+			for (int iX = segment.X0; iX <= segment.X1; iX++) {
+				int segIndex = localIndex(iX, iY);
+				if (segIndex == OFF_PLATE) {
+					assert false: "Aggregating beyond plate limits!";
+					return 0;
+				}
+				
+				if (segmentAt(segIndex) == segmentID && getCrustAt(segIndex) > 0) {
+					// Add the crust to the other plate.
+					plate.addCrustByCollision(indexX(segIndex) + (int)left, indexY(segIndex) + (int)top, getCrustAt(segIndex), getTimestampAt(segIndex));					
 
-						// And remove it from this plate.
-						M -= heightMap[tiSeg.I];
-						heightMap[tiSeg.I] = 0;
-					}
+					// And remove it from this plate.
+					M -= getCrustAt(segIndex);
+					setCrustAt(segIndex, 0);
 				}
 			}
-
-			segment.Area = 0;	// Mark segment as non-existent.
-			return M_old - M;
-		} catch (IllegalArgumentException e) {
-			assert false: "Aggregating beyond plate limits!";
-			return 0;			
 		}
+
+		segment.Area = 0;	// Mark segment as non-existent.
+		return M_old - M;
 	}
 	
 	/**
@@ -398,84 +509,10 @@ public class Plate {
 	 * @param lowerBound Sets limit below which there's no erosion. (Is this height limit? Mass?)
 	 */
 	void erode(float lowerBound) {
-		float tmp[] = new float[width * height];
-		Arrays.fill(tmp, 0);
-		M = R_x = R_y = 0;
-		
-		for (int i = 0; i < width * height; i++) {
-			TileIndex ti = new TileIndex(i);
-			M += heightMap[ti.I];
-			tmp[ti.I] += heightMap[ti.I];
-			
-			// Update R (center of mass)
-			R_x += ti.X * heightMap[ti.I];
-			R_y += ti.Y * heightMap[ti.I];
-			if (heightMap[ti.I] < lowerBound)
-				continue;	// eroded too far already, no more
-			
-			// Collect tiles in the 4 cardinal directions with wrapping
-			// when the plate is world-sized.
-			Stack<TileIndex> tiles = new Stack<TileIndex>();
-			if (width == mapSize || ti.X > 0)			// can go west
-				tiles.Push(new TileIndex(ti.X - 1, ti.Y));
-			if (width == mapSize || ti.X < width - 1)	// can go east
-				tiles.Push(new TileIndex(ti.X + 1, ti.Y));
-			if (height == mapSize || ti.Y > 0)			// can go north
-				tiles.Push(new TileIndex(ti.X, ti.Y - 1));
-			if (height == mapSize || ti.Y < height - 1)// can go south
-				tiles.Push(new TileIndex(ti.X, ti.Y + 1));
-			
-			// Exclude tiles not part of the plate or taller than
-			// the tile currently eroding.
-			for (Iterator<TileIndex> iter = tiles.iterator(); iter.hasNext(); ) {
-				TileIndex tiN = iter.next();
-				if (heightMap[tiN.I] <= 0 || heightMap[tiN.I] > heightMap[ti.I])
-					iter.remove();
-			}
-			
-			// No tiles remain, either this tile has no neighbors or it is
-			// the lowest part of its area.
-			if (tiles.isEmpty())
-				continue;
-			
-			// Find diff
-			float minDiff = heightMap[ti.I];
-			for (TileIndex tiN: tiles) {
-				minDiff = Math.min(minDiff, heightMap[ti.I] - heightMap[tiN.I]);
-			}
-			float diffSum = 0;
-			for (TileIndex tiN: tiles) {
-				diffSum += heightMap[ti.I] - heightMap[tiN.I] - minDiff;
-			}
-			
-			if (diffSum < minDiff) {
-				// There's too much crust to erode nicely. So first
-				// make all lower neighbors and this point equally
-				// tall
-				for (TileIndex tiN: tiles) {
-					tmp[tiN.I] += heightMap[ti.I] - heightMap[tiN.I] - minDiff;
-				}
-				tmp[ti.I] -= minDiff;
-				minDiff -= diffSum;
-				minDiff /= 1 + tiles.size();
-				// and then spread what's left equally among the lower
-				// neighbors
-				for (TileIndex tiN: tiles) {
-					tmp[tiN.I] += minDiff;
-				}
-			} else if (diffSum > 0) {
-				// Remove all crust from this location and make it as
-				// tall as its tallest lower neighbor
-				tmp[ti.I] -= minDiff;
-				float unit = minDiff / diffSum;
-				// and spread it evenly among all other lower neighbors
-				for (TileIndex tiN: tiles) {
-					tmp[tiN.I] += unit * (heightMap[ti.I] - heightMap[tiN.I] - minDiff);
-				}
-			}
-		}
-		// Save new eroded heights
-		heightMap = tmp;
+		if (tiles != null)
+			erodeTiles(lowerBound);
+		else
+			erodeMaps(lowerBound);
 
 		// Normalize center of mass.
 		if (M > 0) {
@@ -489,6 +526,259 @@ public class Plate {
 		}
 	}
 	
+	private void erodeMaps(float lowerBound) {
+		if (erosionBuffer == null || erosionBuffer.length != heightMap.length)
+			erosionBuffer = new float[heightMap.length];
+		float[] tmp = erosionBuffer;
+		float[] hm = heightMap;
+		int[] lower = lowerNeighbors;
+		// Slack outside the window is already zero in both buffers.
+		for (int y = 0; y < height; y++) {
+			int rowStart = windowOffset + y * stride;
+			Arrays.fill(tmp, rowStart, rowStart + width, 0);
+		}
+		M = R_x = R_y = 0;
+		
+		// Tiles on the edge of the plate only have neighbors across the edge
+		// when the plate is world-sized and so wraps around.
+		boolean wrapX = width == mapSize, wrapY = height == mapSize;
+		
+		for (int y = 0; y < height; y++) {
+			int i = windowOffset + y * stride;
+			// Start of the rows to the north and south, or -1 if off the plate.
+			int rowN = y > 0 ? i - stride : (wrapY ? windowOffset + (height - 1) * stride : -1);
+			int rowS = y < height - 1 ? i + stride : (wrapY ? windowOffset : -1);
+			
+			// Only the first and last tiles of a row, or every tile of a row
+			// on an edge that does not wrap, can be missing a neighbor. The
+			// tiles between them are eroded without testing for one.
+			boolean edgeRow = rowN < 0 || rowS < 0;
+			int innerStart = edgeRow ? width : 1;
+			int innerEnd = edgeRow ? width : width - 1;
+			int x = 0;
+			for (; x < innerStart; x++, i++)
+				erodeEdgeTile(lowerBound, x, y, i, rowN, rowS, wrapX, hm, tmp);
+			for (; x < innerEnd; x++, i++) {
+				float h = hm[i];
+				M += h;
+				tmp[i] += h;
+				
+				// Update R (center of mass)
+				R_x += x * h;
+				R_y += y * h;
+				if (h < lowerBound)
+					continue;	// eroded too far already, no more
+				
+				// Collect neighbors that are part of the plate and not taller
+				// than the tile currently eroding, in W, E, N, S order.
+				int iN = rowN + x, iS = rowS + x;
+				int count = 0;
+				if (hm[i - 1] > 0 && hm[i - 1] <= h) lower[count++] = i - 1;
+				if (hm[i + 1] > 0 && hm[i + 1] <= h) lower[count++] = i + 1;
+				if (hm[iN] > 0 && hm[iN] <= h) lower[count++] = iN;
+				if (hm[iS] > 0 && hm[iS] <= h) lower[count++] = iS;
+				
+				// No tiles remain, either this tile has no neighbors or it is
+				// the lowest part of its area.
+				if (count > 0)
+					spreadMaps(hm, tmp, i, h, count);
+			}
+			for (; x < width; x++, i++)
+				erodeEdgeTile(lowerBound, x, y, i, rowN, rowS, wrapX, hm, tmp);
+		}
+		// Save new eroded heights, keeping the old ones as the next scratch buffer.
+		erosionBuffer = heightMap;
+		heightMap = tmp;
+	}
+	
+	/**
+	 * Erode a tile of erodeMaps() that may be missing neighbors, on the edge
+	 * of the plate.
+	 */
+	private void erodeEdgeTile(float lowerBound, int x, int y, int i, int rowN, int rowS, boolean wrapX, float[] hm, float[] tmp) {
+		int[] lower = lowerNeighbors;
+		float h = hm[i];
+		M += h;
+		tmp[i] += h;
+		
+		// Update R (center of mass)
+		R_x += x * h;
+		R_y += y * h;
+		if (h < lowerBound)
+			return;	// eroded too far already, no more
+		
+		int iW = x > 0 ? i - 1 : (wrapX ? i + width - 1 : -1);
+		int iE = x < width - 1 ? i + 1 : (wrapX ? i - width + 1 : -1);
+		int iN = rowN < 0 ? -1 : rowN + x;
+		int iS = rowS < 0 ? -1 : rowS + x;
+		
+		int count = 0;
+		if (iW >= 0 && hm[iW] > 0 && hm[iW] <= h) lower[count++] = iW;
+		if (iE >= 0 && hm[iE] > 0 && hm[iE] <= h) lower[count++] = iE;
+		if (iN >= 0 && hm[iN] > 0 && hm[iN] <= h) lower[count++] = iN;
+		if (iS >= 0 && hm[iS] > 0 && hm[iS] <= h) lower[count++] = iS;
+		if (count > 0)
+			spreadMaps(hm, tmp, i, h, count);
+	}
+	
+	/**
+	 * Move crust from tile i, of height h, to its first count lowerNeighbors.
+	 */
+	private void spreadMaps(float[] hm, float[] tmp, int i, float h, int count) {
+		int[] lower = lowerNeighbors;
+		// Find diff
+		float minDiff = h;
+		for (int k = 0; k < count; k++)
+			minDiff = Math.min(minDiff, h - hm[lower[k]]);
+		float diffSum = 0;
+		for (int k = 0; k < count; k++)
+			diffSum += h - hm[lower[k]] - minDiff;
+		
+		if (diffSum < minDiff) {
+			// There's too much crust to erode nicely. So first
+			// make all lower neighbors and this point equally
+			// tall
+			for (int k = 0; k < count; k++)
+				tmp[lower[k]] += h - hm[lower[k]] - minDiff;
+			tmp[i] -= minDiff;
+			minDiff -= diffSum;
+			minDiff /= 1 + count;
+			// and then spread what's left equally among the lower
+			// neighbors
+			for (int k = 0; k < count; k++)
+				tmp[lower[k]] += minDiff;
+		} else if (diffSum > 0) {
+			// Remove all crust from this location and make it as
+			// tall as its tallest lower neighbor
+			tmp[i] -= minDiff;
+			float unit = minDiff / diffSum;
+			// and spread it evenly among all other lower neighbors
+			for (int k = 0; k < count; k++)
+				tmp[lower[k]] += unit * (h - hm[lower[k]] - minDiff);
+		}
+	}
+	
+	/**
+	 * erodeMaps() for sparse plates. Tiles are visited in the same order and
+	 * missing tiles, which have no crust to move, are skipped.
+	 */
+	private void erodeTiles(float lowerBound) {
+		PlateTiles t = tiles;
+		int[] lower = lowerNeighbors;
+		t.clearScratch();
+		M = R_x = R_y = 0;
+		
+		boolean wrapX = width == mapSize, wrapY = height == mapSize;
+		
+		for (int y = 0; y < height; y++) {
+			int yN = y > 0 ? y - 1 : (wrapY ? height - 1 : -1);
+			int yS = y < height - 1 ? y + 1 : (wrapY ? 0 : -1);
+			boolean edgeRow = yN < 0 || yS < 0;
+			
+			for (int x = 0; x < width; ) {
+				int runEnd = Math.min(width, t.tileEndX(x));
+				float[] hm = t.heightTile(x, y);
+				if (hm == null) {
+					x = runEnd;
+					continue;
+				}
+				float[] tmp = t.scratchTile(x, y);
+				int c = t.cell(x, y);
+				
+				// As in erodeMaps(), only edge tiles test for missing neighbors.
+				int innerStart = edgeRow ? runEnd : Math.max(x, 1);
+				int innerEnd = edgeRow ? runEnd : Math.min(runEnd, width - 1);
+				for (; x < innerStart; x++, c++)
+					erodeEdgeCell(lowerBound, x, y, c, yN, yS, wrapX, hm, tmp);
+				for (; x < innerEnd; x++, c++) {
+					float h = hm[c];
+					M += h;
+					tmp[c] += h;
+					
+					// Update R (center of mass)
+					R_x += x * h;
+					R_y += y * h;
+					if (h < lowerBound)
+						continue;	// eroded too far already, no more
+					
+					// Collect lower neighbors as local indices, in W, E, N, S order.
+					int count = 0;
+					float n;
+					if ((n = t.getHeight(x - 1, y)) > 0 && n <= h) lower[count++] = y * width + x - 1;
+					if ((n = t.getHeight(x + 1, y)) > 0 && n <= h) lower[count++] = y * width + x + 1;
+					if ((n = t.getHeight(x, yN)) > 0 && n <= h) lower[count++] = yN * width + x;
+					if ((n = t.getHeight(x, yS)) > 0 && n <= h) lower[count++] = yS * width + x;
+					if (count > 0)
+						spreadTiles(tmp, c, h, count);
+				}
+				for (; x < runEnd; x++, c++)
+					erodeEdgeCell(lowerBound, x, y, c, yN, yS, wrapX, hm, tmp);
+			}
+		}
+		t.swapScratch();
+		// Segments were reset before eroding, so emptied tiles can go.
+		t.compact();
+	}
+	
+	/**
+	 * Erode a tile of erodeTiles() that may be missing neighbors, on the
+	 * edge of the plate. c is its cell in hm and tmp.
+	 */
+	private void erodeEdgeCell(float lowerBound, int x, int y, int c, int yN, int yS, boolean wrapX, float[] hm, float[] tmp) {
+		PlateTiles t = tiles;
+		int[] lower = lowerNeighbors;
+		float h = hm[c];
+		M += h;
+		tmp[c] += h;
+		
+		// Update R (center of mass)
+		R_x += x * h;
+		R_y += y * h;
+		if (h < lowerBound)
+			return;	// eroded too far already, no more
+		
+		int xW = x > 0 ? x - 1 : (wrapX ? width - 1 : -1);
+		int xE = x < width - 1 ? x + 1 : (wrapX ? 0 : -1);
+		
+		int count = 0;
+		float n;
+		if (xW >= 0 && (n = t.getHeight(xW, y)) > 0 && n <= h) lower[count++] = y * width + xW;
+		if (xE >= 0 && (n = t.getHeight(xE, y)) > 0 && n <= h) lower[count++] = y * width + xE;
+		if (yN >= 0 && (n = t.getHeight(x, yN)) > 0 && n <= h) lower[count++] = yN * width + x;
+		if (yS >= 0 && (n = t.getHeight(x, yS)) > 0 && n <= h) lower[count++] = yS * width + x;
+		if (count > 0)
+			spreadTiles(tmp, c, h, count);
+	}
+	
+	/**
+	 * spreadMaps() for sparse plates; tmp is the scratch tile of cell c.
+	 */
+	private void spreadTiles(float[] tmp, int c, float h, int count) {
+		PlateTiles t = tiles;
+		int[] lower = lowerNeighbors;
+		float minDiff = h;
+		for (int k = 0; k < count; k++)
+			minDiff = Math.min(minDiff, h - getCrustAt(lower[k]));
+		float diffSum = 0;
+		for (int k = 0; k < count; k++)
+			diffSum += h - getCrustAt(lower[k]) - minDiff;
+		
+		if (diffSum < minDiff) {
+			for (int k = 0; k < count; k++)
+				t.addScratch(indexX(lower[k]), indexY(lower[k]), h - getCrustAt(lower[k]) - minDiff);
+			tmp[c] -= minDiff;
+			minDiff -= diffSum;
+			minDiff /= 1 + count;
+			for (int k = 0; k < count; k++)
+				t.addScratch(indexX(lower[k]), indexY(lower[k]), minDiff);
+		} else if (diffSum > 0) {
+			tmp[c] -= minDiff;
+			float unit = minDiff / diffSum;
+			for (int k = 0; k < count; k++)
+				t.addScratch(indexX(lower[k]), indexY(lower[k]), unit * (h - getCrustAt(lower[k]) - minDiff));
+		}
+	}
+	
 	/**
 	 * Retrieve collision statistics of continent at given location.
 	 * @param worldX X coordinate of collision point on world map.
@@ -497,17 +787,16 @@ public class Plate {
 	 *         of area collided and number of collisions
 	 */
 	CollisionStatistic getCollisionInfo(int worldX, int worldY) {
-		try {
-			TileIndex tiColl = getLocalTile(worldX, worldY);
-			int segID = segmentOwnerMap[tiColl.I];
-			assert segID < collisionSegments.size(): "getCollisionInfo: no segment found!";
-			
-			CollisionSegment seg = collisionSegments.get(segID);				
-			return new CollisionStatistic(seg.Collisions, seg.Collisions / (1.0f + seg.Area));		
-		} catch (IllegalArgumentException e) {
+		int index = getLocalIndex(worldX, worldY);
+		if (index == OFF_PLATE) {
 			assert false: "getCollisionInfo: out of map bounds!";
 			return null;
 		}
+		int segID = segmentAt(index);
+		assert segID < collisionSegments.size(): "getCollisionInfo: no segment found!";
+		
+		CollisionSegment seg = collisionSegments.get(segID);				
+		return new CollisionStatistic(seg.Collisions, seg.Collisions / (1.0f + seg.Area));
 	}
 	  
 	/**
@@ -518,14 +807,13 @@ public class Plate {
 	 * @return Area of continent at desired location or 0 if none.
 	 */
 	int getContinentArea(int worldX, int worldY) {
-		try {
-			TileIndex tiCont = getLocalTile(worldX, worldY);
-			assert segmentOwnerMap[tiCont.I] < collisionSegments.size(): "getContinentArea: no segment found!";  
-			return collisionSegments.get(segmentOwnerMap[tiCont.I]).Area;
-		} catch (IllegalArgumentException e) {
+		int index = getLocalIndex(worldX, worldY);
+		if (index == OFF_PLATE) {
 			assert false: "getContinentArea: out of map bounds!";
 			return 0;
 		}
+		assert segmentAt(index) < collisionSegments.size(): "getContinentArea: no segment found!";  
+		return collisionSegments.get(segmentAt(index)).Area;
 	}
 	
 	/**
@@ -536,12 +824,8 @@ public class Plate {
 	 * @return Amount of crust at requested location.
 	 */
 	float getCrust(int worldX, int worldY) {
-		try {
-			TileIndex tiCrust = getLocalTile(worldX, worldY);
-			return heightMap[tiCrust.I];
-		} catch (IllegalArgumentException e) {
-			return 0;
-		}
+		int index = getLocalIndex(worldX, worldY);
+		return index == OFF_PLATE ? 0 : getCrustAt(index);
 	}
 	
 	/**
@@ -552,17 +836,35 @@ public class Plate {
 	 * @return Timestamp of creation of crust at the location or 0 if no crust.
 	 */
 	int getCrustTimestamp(int worldX, int worldY) {
-		try {
-			TileIndex tiTime = getLocalTile(worldX, worldY);
-			return timestampMap[tiTime.I];
-		} catch (IllegalArgumentException e) {
-			return 0;
-		}
+		int index = getLocalIndex(worldX, worldY);
+		return index == OFF_PLATE ? 0 : getTimestampAt(index);
+	}
+	
+	/**
+	 * Get the amount of crust at an index returned by getLocalIndex().
+	 */
+	float getCrustAt(int index) {
+		return tiles == null ? heightMap[index] : tiles.getHeight(indexX(index), indexY(index));
+	}
+	
+	/**
+	 * Get the timestamp of crust at an index returned by getLocalIndex().
+	 */
+	int getTimestampAt(int index) {
+		return tiles == null ? timestampMap[index] : tiles.getTimestamp(indexX(index), indexY(index));
+	}
+	
+	/**
+	 * Get plate's sparse storage.
+	 * @return Tiles holding the plate's data, or null if it uses plain maps.
+	 */
+	PlateTiles getTiles() {
+		return tiles;
 	}
 	
 	/**
 	 * Get plate's data.
-	 * @return heightMap data
+	 * @return heightMap data, or null if the plate is sparse.
 	 */
 	float[] getHeightmap() {
 		return this.heightMap;
@@ -570,7 +872,7 @@ public class Plate {
 	
 	/**
 	 * Get plate's data.
-	 * @return Time of creation data.
+	 * @return Time of creation data, or null if the plate is sparse.
 	 */
 	int[] getTimestampMap() {
 		return this.timestampMap;
@@ -621,7 +923,10 @@ public class Plate {
 	 * bookkeeping and start clean.
 	 */
 	void resetSegments() {
-		Arrays.fill(segmentOwnerMap, Integer.MAX_VALUE);
+		if (tiles != null)
+			tiles.clearSegments();
+		else
+			Arrays.fill(segmentOwnerMap, Integer.MAX_VALUE);
 		collisionSegments.clear();
 	}
 	
@@ -632,13 +937,14 @@ public class Plate {
 	 * @param worldY Y coordinate of origin of collision on world map.
 	 */
 	void selectCollisionSegment(int worldX, int worldY) {
-		try {
-			activeContinentID = segmentOwnerMap[getLocalTile(worldX, worldY).I];
-			assert activeContinentID < collisionSegments.size():
-				"Collision happened at unsegmented location!";
-		} catch (IllegalArgumentException e) {
-			assert false: "Collision segment cannot be set outside plate!";			
+		int index = getLocalIndex(worldX, worldY);
+		if (index == OFF_PLATE) {
+			assert false: "Collision segment cannot be set outside plate!";
+			return;
 		}
+		activeContinentID = segmentAt(index);
+		assert activeContinentID < collisionSegments.size():
+			"Collision happened at unsegmented location!";
 	}
 
 	/**
@@ -719,29 +1025,20 @@ public class Plate {
 			/* System.out.printf("%dx%d + [%d, %d] + [%d, %d] = %dx%d\n",
 				oldWidth, oldHeight, dist[0], dist[1], dist[2], dist[3], width, height); */
 			
-			// Reallocate plate data storage
-			float[] tmpHmap = new float[width * height];
-			int[] tmpAmap = new int[width * height];
-			int[] tmpSmap = new int[width * height];
-			Arrays.fill(tmpHmap, 0f);
-			Arrays.fill(tmpAmap, 0);
-			Arrays.fill(tmpSmap, Integer.MAX_VALUE);
-			
-			// Copy existing data over
-			for (int row = 0; row < oldHeight; row++) {
-				int posDest = (int) ((dist[1] + row) * width + dist[0]);
-				int posSrc = row * oldWidth;
-				
-				System.arraycopy(heightMap, posSrc, tmpHmap, posDest, oldWidth);
-				System.arraycopy(segmentOwnerMap, posSrc, tmpSmap, posDest, oldWidth);
-				System.arraycopy(timestampMap, posSrc, tmpAmap, posDest, oldWidth);
+			// Grow the window into the slack if it fits, otherwise move it to
+			// the centre of new, larger storage.
+			int windowX = windowOffset % stride - dist[0];
+			int windowY = windowOffset / stride - dist[1];
+			if (tiles != null) {
+				tiles.grow(dist[0], dist[1], width, height);
+				stride = width;
+				capacityRows = height;
+			} else if (windowX >= 0 && windowX + width <= stride && windowY >= 0 && windowY + height <= capacityRows) {
+				windowOffset = windowY * stride + windowX;
+			} else {
+				reallocate(oldWidth, oldHeight, dist[0], dist[1]);
 			}
 			
-			// Replace the old(now invalid) storage
-			heightMap = tmpHmap;
-			segmentOwnerMap = tmpSmap;
-			timestampMap = tmpAmap;
-			
 			// Shift collision segment local coordinates
 			for (CollisionSegment seg:collisionSegments) {
 				seg.X0 += dist[0];
@@ -755,16 +1052,15 @@ public class Plate {
 						(int)left, (int)top, (int)left+width, (int)top+height, worldX, worldY, worldX % mapSize, worldY % mapSize);
 		}
 		
-		TileIndex tiCrust = getLocalTile(worldX, worldY);
-		if (amount > 0 && heightMap[tiCrust.I] > 0) {
-			timestampMap[tiCrust.I] += timeStamp;
-			timestampMap[tiCrust.I] /= 2;
+		int index = getLocalIndex(worldX, worldY);
+		if (amount > 0 && getCrustAt(index) > 0) {
+			setTimestampAt(index, (getTimestampAt(index) + timeStamp) / 2);
 		} else if (amount > 0) {
-			timestampMap[tiCrust.I] = timeStamp;
+			setTimestampAt(index, timeStamp);
 		}
 		// Update mass
-		M -= heightMap[tiCrust.I];
-		heightMap[tiCrust.I] = amount;
+		M -= getCrustAt(index);
+		setCrustAt(index, amount);
 		M += amount;
 		if (M > 0)
 			invMass = 1f / M;
@@ -778,56 +1074,49 @@ public class Plate {
 	 * Method analyzes the pixels 4-ways adjacent at the given location
 	 * and labels all connected continental points with the same segment ID.
 	 * 
-	 * @param localX X coordinate on the local map.
-	 * @param localY Y coordinate on the local map.
+	 * @param origin Index of the starting tile on the local map.
 	 * @return ID of created segment on success, otherwise -1.
 	 */
-	private int createSegment(TileIndex tiOrigin) {
+	private int createSegment(int origin) {
 		int newSegmentID = collisionSegments.size();
 		
 		// This tile already belongs to a collision segment
-		if (segmentOwnerMap[tiOrigin.I] < newSegmentID)
-			return segmentOwnerMap[tiOrigin.I];
+		if (segmentAt(origin) < newSegmentID)
+			return segmentAt(origin);
 
 		// Is a neighboring tile part of an existing collision segment?
-		int adjSegmentID = checkNeighboringSegment(tiOrigin);
+		int adjSegmentID = checkNeighboringSegment(origin);
 		if (adjSegmentID < newSegmentID)
 			return adjSegmentID;
 				
-		segmentOwnerMap[tiOrigin.I] = newSegmentID;
-		CollisionSegment newSegment = new CollisionSegment(tiOrigin.X, tiOrigin.Y, tiOrigin.X, tiOrigin.Y, 0);
+		setSegmentAt(origin, newSegmentID);
+		CollisionSegment newSegment = new CollisionSegment(indexX(origin), indexY(origin), indexX(origin), indexY(origin), 0);
 		
-		Stack<TileIndex> border = new Stack<TileIndex>();
-		border.Push(tiOrigin);
-		while (!border.IsEmpty()) {
+		int[] tiles = segmentNeighbors;
+		int[] border = segmentBorder;
+		int borderSize = 0;
+		border[borderSize++] = origin;
+		while (borderSize > 0) {
 			// choose random location on border 
-			int borderIndex = rand.nextInt(border.size());
-			TileIndex tiBord = border.Peek(borderIndex);
-			
-			Stack<TileIndex> tiles = new Stack<TileIndex>();
-			if (width == mapSize || tiBord.X > 0)			// can go west
-				tiles.Push(new TileIndex(tiBord.X - 1, tiBord.Y));
-			if (width == mapSize || tiBord.X < width - 1)	// can go east
-				tiles.Push(new TileIndex(tiBord.X + 1, tiBord.Y));
-			if (height == mapSize || tiBord.Y > 0)			// can go north
-				tiles.Push(new TileIndex(tiBord.X, tiBord.Y - 1));
-			if (height == mapSize || tiBord.Y < height - 1)	// can go south
-				tiles.Push(new TileIndex(tiBord.X, tiBord.Y + 1));
+			int borderIndex = rand.nextInt(borderSize);
+			int count = getNeighbors(border[borderIndex], tiles);
 			
-			for (TileIndex ti: tiles) {
+			for (int i = 0; i < count; i++) {
 				// If the N/S/E/W tile is un-owned, claim it for the active segment
 				// and add it to the border.
-				if (segmentOwnerMap[ti.I] > newSegmentID &&
-					heightMap[ti.I] >= Lithosphere.CONTINENTAL_BASE) {
-					border.Push(ti);
+				int tile = tiles[i];
+				if (segmentAt(tile) > newSegmentID &&
+					getCrustAt(tile) >= Lithosphere.CONTINENTAL_BASE) {
+					if (borderSize == border.length)
+						segmentBorder = border = Arrays.copyOf(border, borderSize * 2);
+					border[borderSize++] = tile;
 					newSegment.Area++;
-					newSegment.UpdateBoundsToInclude(ti.X, ti.Y);
-					segmentOwnerMap[ti.I] = newSegmentID;
+					newSegment.UpdateBoundsToInclude(indexX(tile), indexY(tile));
+					setSegmentAt(tile, newSegmentID);
 				}
 			}
 			// Overwrite processed point in border with last item from border
-			border.set(borderIndex, border.Peek());
-			border.Pop();			
+			border[borderIndex] = border[--borderSize];
 		}
 		
 		/* if (newSegment.Area > 0)
@@ -839,42 +1128,151 @@ public class Plate {
 		return newSegmentID;
 	}
 	
-	private int checkNeighboringSegment(TileIndex tiOrigin) {
+	private int checkNeighboringSegment(int origin) {
 		int segNew = collisionSegments.size();
 		int segNeighbor = segNew;
 
-		Stack<TileIndex> tiles = new Stack<TileIndex>();
-		if (width == mapSize || tiOrigin.X > 0)				// can go west
-			tiles.Push(new TileIndex(tiOrigin.X - 1, tiOrigin.Y));
-		if (width == mapSize || tiOrigin.X < width - 1)		// can go east
-			tiles.Push(new TileIndex(tiOrigin.X + 1, tiOrigin.Y));
-		if (height == mapSize || tiOrigin.Y > 0)			// can go north
-			tiles.Push(new TileIndex(tiOrigin.X, tiOrigin.Y - 1));
-		if (height == mapSize || tiOrigin.Y < height - 1)	// can go south
-			tiles.Push(new TileIndex(tiOrigin.X, tiOrigin.Y + 1));
-		
-		for (TileIndex ti: tiles) {
-			if (heightMap[ti.I] >= Lithosphere.CONTINENTAL_BASE &&
-				segmentOwnerMap[ti.I] < segNew) {
-				segNeighbor = segmentOwnerMap[ti.I];
-				segmentOwnerMap[tiOrigin.I] = segNeighbor;
+		int[] tiles = segmentNeighbors;
+		int count = getNeighbors(origin, tiles);
+		for (int i = 0; i < count; i++) {
+			int tile = tiles[i];
+			if (getCrustAt(tile) >= Lithosphere.CONTINENTAL_BASE &&
+				segmentAt(tile) < segNew) {
+				segNeighbor = segmentAt(tile);
+				setSegmentAt(origin, segNeighbor);
 				collisionSegments.get(segNeighbor).Area++;
-				collisionSegments.get(segNeighbor).UpdateBoundsToInclude(ti.X, ti.Y);
+				collisionSegments.get(segNeighbor).UpdateBoundsToInclude(indexX(tile), indexY(tile));
 				break;
 			}
 		}
 		return segNeighbor;
 	}
+	
+	/**
+	 * Collect the tiles 4-ways adjacent to a tile, wrapping around the world
+	 * edge only if the plate spans the whole world in that direction.
+	 * 
+	 * @param index Index of the tile on the local map.
+	 * @param neighbors Receives the neighbors' indices in W, E, N, S order.
+	 * @return Number of neighbors stored.
+	 */
+	private int getNeighbors(int index, int[] neighbors) {
+		int x = indexX(index), y = indexY(index);
+		int count = 0;
+		if (width == mapSize || x > 0)				// can go west
+			neighbors[count++] = x > 0 ? index - 1 : index + width - 1;
+		if (width == mapSize || x < width - 1)		// can go east
+			neighbors[count++] = x < width - 1 ? index + 1 : index - width + 1;
+		if (height == mapSize || y > 0)				// can go north
+			neighbors[count++] = y > 0 ? index - stride : index + (height - 1) * stride;
+		if (height == mapSize || y < height - 1)	// can go south
+			neighbors[count++] = y < height - 1 ? index + stride : windowOffset + x;
+		return count;
+	}
 
 	/**
 	 * Translate world coordinates into offset within plate's height map.
 	 * 
-	 * @param x X coordinate on world map.
-	 * @param y Y coordinate on world map.
-	 * @return Index into local heightmap.
+	 * @param worldX X coordinate on world map.
+	 * @param worldY Y coordinate on world map.
+	 * @return Index into local heightmap, or OFF_PLATE if not on this plate.
+	 */
+	int getLocalIndex(int worldX, int worldY) {
+		return localIndex(getLocalX(worldX), getLocalY(worldY));
+	}
+	
+	/**
+	 * Translate plate-local coordinates, wrapping around the world edge,
+	 * into offset within plate's height map.
+	 * 
+	 * @param localX X coordinate relative to the plate's left edge.
+	 * @param localY Y coordinate relative to the plate's top edge.
+	 * @return Index into local heightmap, or OFF_PLATE if not on this plate.
+	 */
+	private int localIndex(int localX, int localY) {
+		localX = (localX + mapSize) % mapSize;
+		localY = (localY + mapSize) % mapSize;
+		if (localY >= height || localY < 0 || localX >= width || localX < 0)
+			return OFF_PLATE;
+		return windowOffset + localY * stride + localX;
+	}
+	private void setCrustAt(int index, float amount) {
+		if (tiles == null)
+			heightMap[index] = amount;
+		else
+			tiles.setHeight(indexX(index), indexY(index), amount);
+	}
+	private void setTimestampAt(int index, int timeStamp) {
+		if (tiles == null)
+			timestampMap[index] = timeStamp;
+		else
+			tiles.setTimestamp(indexX(index), indexY(index), timeStamp);
+	}
+	private int segmentAt(int index) {
+		return tiles == null ? segmentOwnerMap[index] : tiles.getSegment(indexX(index), indexY(index));
+	}
+	private void setSegmentAt(int index, int segment) {
+		if (tiles == null)
+			segmentOwnerMap[index] = segment;
+		else
+			tiles.setSegment(indexX(index), indexY(index), segment);
+	}
+	private void allocateStorage(boolean sparse) {
+		if (sparse) {
+			this.tiles = new PlateTiles(width, height);
+		} else {
+			int area = width * height;
+			this.heightMap = new float[area];
+			this.timestampMap = new int[area];
+			this.segmentOwnerMap = new int[area];
+			Arrays.fill(segmentOwnerMap, Integer.MAX_VALUE);
+		}
+	}
+	int indexX(int index) {
+		return (index - windowOffset) % stride;
+	}
+	int indexY(int index) {
+		return (index - windowOffset) / stride;
+	}
+	
+	/**
+	 * Move the plate into new storage with room to grow, geometrically, in
+	 * every direction that isn't already as large as the world.
+	 * 
+	 * Called by setCrust() after the window has been resized.
+	 * @param oldWidth Width of the window before it grew.
+	 * @param oldHeight Height of the window before it grew.
+	 * @param shiftX Number of columns added on the left.
+	 * @param shiftY Number of rows added on the top.
 	 */
-	public TileIndex getLocalTile(int worldX, int worldY) {		
-		return new TileIndex(getLocalX(worldX), getLocalY(worldY));
+	private void reallocate(int oldWidth, int oldHeight, int shiftX, int shiftY) {
+		int newStride = Math.max(width, Math.min(width * 2, mapSize));
+		int newRows = Math.max(height, Math.min(height * 2, mapSize));
+		int newOffset = (newRows - height) / 2 * newStride + (newStride - width) / 2;
+		
+		float[] tmpHmap = new float[newStride * newRows];
+		int[] tmpAmap = new int[newStride * newRows];
+		int[] tmpSmap = new int[newStride * newRows];
+		Arrays.fill(tmpSmap, Integer.MAX_VALUE);
+		
+		// Copy existing data over
+		for (int row = 0; row < oldHeight; row++) {
+			int posDest = newOffset + (shiftY + row) * newStride + shiftX;
+			int posSrc = windowOffset + row * stride;
+			
+			System.arraycopy(heightMap, posSrc, tmpHmap, posDest, oldWidth);
+			System.arraycopy(segmentOwnerMap, posSrc, tmpSmap, posDest, oldWidth);
+			System.arraycopy(timestampMap, posSrc, tmpAmap, posDest, oldWidth);
+		}
+		
+		// Replace the old(now invalid) storage
+		heightMap = tmpHmap;
+		segmentOwnerMap = tmpSmap;
+		timestampMap = tmpAmap;
+		erosionBuffer = null;
+		stride = newStride;
+		capacityRows = newRows;
+		windowOffset = newOffset;
 	}
 	public int getLocalX(int worldX) {
 		worldX %= mapSize;                    // scale within map dimensions
@@ -887,11 +1285,6 @@ public class Plate {
 		return worldY - (int)top;
 	}
 	private boolean worldTileIsOnPlate(int worldX, int worldY) {
-		try {
-			TileIndex ti = getLocalTile(worldX, worldY);
-			return true;
-		} catch (IllegalArgumentException e) {
-			return false;
-		}
+		return getLocalIndex(worldX, worldY) != OFF_PLATE;
 	}
 }
@@ -0,0 +1,211 @@
+package com.tepidpond.tum.PlateTectonics;
+
+import java.util.Arrays;
+
+/**
+ * Sparse storage for a plate's height, timestamp and segment maps.
+ *
+ * The plate's window is covered by a grid of TILE_SIZE x TILE_SIZE tiles.
+ * A tile is allocated on the first non-zero write and dropped again by
+ * compact() once it holds no crust. The ages of crust that has gone are
+ * still visible to Lithosphere.restart(), so they are kept, on their own,
+ * until they are all zero. Reading a missing tile gives the same values as
+ * an empty dense map: no crust, timestamp 0 and no collision segment.
+ *
+ * Coordinates are local to the plate's window. The grid is offset from the
+ * window by (padX, padY) so the window can grow up and left without moving
+ * any tile data.
+ */
+class PlateTiles {
+	static final int TILE_BITS = 5;
+	static final int TILE_SIZE = 1 << TILE_BITS;
+	static final int TILE_MASK = TILE_SIZE - 1;
+	static final int TILE_AREA = TILE_SIZE * TILE_SIZE;
+
+	private int padX, padY;
+	private int tilesX, tilesY;
+	private float[][] heights;
+	private int[][] timestamps;
+	private int[][] segments;
+	// Second height buffer per tile for Plate.erode().
+	private float[][] scratch;
+
+	PlateTiles(int width, int height) {
+		tilesX = (width + TILE_MASK) >> TILE_BITS;
+		tilesY = (height + TILE_MASK) >> TILE_BITS;
+		heights = new float[tilesX * tilesY][];
+		timestamps = new int[tilesX * tilesY][];
+		segments = new int[tilesX * tilesY][];
+		scratch = new float[tilesX * tilesY][];
+	}
+
+	int tile(int x, int y) {
+		return ((y + padY) >> TILE_BITS) * tilesX + ((x + padX) >> TILE_BITS);
+	}
+	int cell(int x, int y) {
+		return (((y + padY) & TILE_MASK) << TILE_BITS) | ((x + padX) & TILE_MASK);
+	}
+	/** First local X coordinate past the tile holding column x. */
+	int tileEndX(int x) {
+		return (((x + padX) >> TILE_BITS) + 1 << TILE_BITS) - padX;
+	}
+
+	/** Heights of the tile holding (x, y), or null if it has no data. */
+	float[] heightTile(int x, int y)  { return heights[tile(x, y)]; }
+	int[] timestampTile(int x, int y) { return timestamps[tile(x, y)]; }
+
+	float getHeight(int x, int y) {
+		float[] t = heights[tile(x, y)];
+		return t == null ? 0 : t[cell(x, y)];
+	}
+	int getTimestamp(int x, int y) {
+		int[] t = timestamps[tile(x, y)];
+		return t == null ? 0 : t[cell(x, y)];
+	}
+	int getSegment(int x, int y) {
+		int[] t = segments[tile(x, y)];
+		return t == null ? Integer.MAX_VALUE : t[cell(x, y)];
+	}
+
+	void setHeight(int x, int y, float value) {
+		int tile = tile(x, y);
+		if (heights[tile] == null) {
+			if (value == 0)
+				return;
+			allocate(tile);
+		}
+		heights[tile][cell(x, y)] = value;
+	}
+	void setTimestamp(int x, int y, int value) {
+		int tile = tile(x, y);
+		if (timestamps[tile] == null) {
+			if (value == 0)
+				return;
+			timestamps[tile] = new int[TILE_AREA];
+		}
+		timestamps[tile][cell(x, y)] = value;
+	}
+	void setSegment(int x, int y, int value) {
+		int tile = tile(x, y);
+		if (segments[tile] == null) {
+			if (value == Integer.MAX_VALUE)
+				return;
+			allocate(tile);
+		}
+		segments[tile][cell(x, y)] = value;
+	}
+
+	void clearSegments() {
+		for (int[] t: segments)
+			if (t != null)
+				Arrays.fill(t, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Zero the scratch buffer of every allocated tile, creating it if
+	 * necessary, ready for an erosion pass.
+	 */
+	void clearScratch() {
+		for (int tile = 0; tile < heights.length; tile++) {
+			if (heights[tile] == null)
+				continue;
+			if (scratch[tile] == null)
+				scratch[tile] = new float[TILE_AREA];
+			else
+				Arrays.fill(scratch[tile], 0);
+		}
+	}
+	float[] scratchTile(int x, int y) { return scratch[tile(x, y)]; }
+	void addScratch(int x, int y, float value) {
+		scratch[tile(x, y)][cell(x, y)] += value;
+	}
+
+	/** Make the scratch buffers the heights, after an erosion pass. */
+	void swapScratch() {
+		float[][] tmp = heights;
+		heights = scratch;
+		scratch = tmp;
+	}
+
+	/**
+	 * Release tiles that hold no crust, keeping their timestamps unless
+	 * those are all zero too. Segment bookkeeping must have been reset first.
+	 */
+	void compact() {
+		for (int tile = 0; tile < heights.length; tile++) {
+			if (heights[tile] != null && isZero(heights[tile])) {
+				heights[tile] = null;
+				segments[tile] = null;
+				scratch[tile] = null;
+			}
+			if (heights[tile] == null && timestamps[tile] != null && isZero(timestamps[tile]))
+				timestamps[tile] = null;
+		}
+	}
+
+	/**
+	 * Resize the grid after the plate's window grew.
+	 * @param shiftX Number of columns added on the left.
+	 * @param shiftY Number of rows added on the top.
+	 * @param width New width of the window.
+	 * @param height New height of the window.
+	 */
+	void grow(int shiftX, int shiftY, int width, int height) {
+		padX -= shiftX;
+		padY -= shiftY;
+		int addX = padX < 0 ? (-padX + TILE_MASK) >> TILE_BITS : 0;
+		int addY = padY < 0 ? (-padY + TILE_MASK) >> TILE_BITS : 0;
+		padX += addX << TILE_BITS;
+		padY += addY << TILE_BITS;
+
+		int newTilesX = (padX + width + TILE_MASK) >> TILE_BITS;
+		int newTilesY = (padY + height + TILE_MASK) >> TILE_BITS;
+		if (newTilesX == tilesX && newTilesY == tilesY)
+			return;
+
+		heights = regrid(heights, new float[newTilesX * newTilesY][], addX, addY, newTilesX);
+		timestamps = regrid(timestamps, new int[newTilesX * newTilesY][], addX, addY, newTilesX);
+		segments = regrid(segments, new int[newTilesX * newTilesY][], addX, addY, newTilesX);
+		scratch = regrid(scratch, new float[newTilesX * newTilesY][], addX, addY, newTilesX);
+		tilesX = newTilesX;
+		tilesY = newTilesY;
+	}
+
+	/** Number of tiles currently holding crust. */
+	int getTileCount() {
+		int count = 0;
+		for (float[] t: heights)
+			if (t != null)
+				count++;
+		return count;
+	}
+
+	private <T> T[] regrid(T[] from, T[] to, int addX, int addY, int newTilesX) {
+		for (int ty = 0; ty < tilesY; ty++)
+			System.arraycopy(from, ty * tilesX, to, (ty + addY) * newTilesX + addX, tilesX);
+		return to;
+	}
+
+	private void allocate(int tile) {
+		if (heights[tile] != null)
+			return;
+		heights[tile] = new float[TILE_AREA];
+		if (timestamps[tile] == null)
+			timestamps[tile] = new int[TILE_AREA];
+		segments[tile] = new int[TILE_AREA];
+		Arrays.fill(segments[tile], Integer.MAX_VALUE);
+	}
+
+	private static boolean isZero(float[] t) {
+		for (float v: t)
+			if (v != 0)
+				return false;
+		return true;
+	}
+	private static boolean isZero(int[] t) {
+		for (int v: t)
+			if (v != 0)
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,130 @@
+package com.tepidpond.tum.PlateTectonics;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Square-diamond fractal noise on a torus: a mapSize x mapSize map whose
+ * edges wrap, with no extra row and column to cut off.
+ *
+ * Unlike SquareDiamond, a point's displacement is not the next number from
+ * a Random but a hash of (seed, level, x, y). No point depends on the order
+ * the others were made in, so each pass over a level runs as bands of rows
+ * on a fork-join pool, and the map is the same however many threads made it.
+ */
+public class TorusSquareDiamond {
+	// Grid points a band should have before it is worth its own task.
+	private static final int MIN_POINTS_PER_TASK = 4096;
+
+	/**
+	 * @param map Receives the noise, row by row.
+	 * @param mapSize Side of the map; a power of two.
+	 * @param maxDisplacement Largest displacement of the first level. Each
+	 *                        level after it has 2^-roughness as much.
+	 * @param pool Where to run the passes, or null to run them on the
+	 *             calling thread.
+	 */
+	public static void generate(FloatBuffer map, int mapSize, float maxDisplacement, float roughness, long seed, ForkJoinPool pool) {
+		if (mapSize < 1 || (mapSize & (mapSize - 1)) != 0)
+			throw new IllegalArgumentException("mapSize must be a power of two.");
+		if (map.capacity() < mapSize * mapSize)
+			throw new IllegalArgumentException("map is smaller than mapSize^2.");
+
+		// The single point of the coarsest grid.
+		map.put(0, 0);
+		float displacement = maxDisplacement;
+		for (int level = 0, step = mapSize; step > 1; level++, step /= 2) {
+			run(new Pass(map, mapSize, step, true, displacement, seed, level, 0, mapSize / step), pool);
+			run(new Pass(map, mapSize, step, false, displacement, seed, level, 0, 2 * mapSize / step), pool);
+			displacement *= Math.pow(2.0D, -roughness);
+		}
+	}
+
+	private static void run(Pass pass, ForkJoinPool pool) {
+		if (pool != null && pass.isLarge())
+			pool.invoke(pass);
+		else
+			pass.compute();
+	}
+
+	/**
+	 * The diamond or the square pass of a level, over grid rows [row0, row1).
+	 *
+	 * The diamond pass sets the centre of every square of the grid of side
+	 * step from its corners. The square pass then sets the middle of every
+	 * edge from the corners and centres either side of it; its rows are
+	 * half a step apart, alternately of vertical and of horizontal edges.
+	 */
+	private static final class Pass extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final FloatBuffer map;
+		final int mapSize, step;
+		final boolean diamond;
+		final float displacement;
+		final long seed;
+		final int level, row0, row1;
+
+		Pass(FloatBuffer map, int mapSize, int step, boolean diamond, float displacement, long seed, int level, int row0, int row1) {
+			this.map = map;
+			this.mapSize = mapSize;
+			this.step = step;
+			this.diamond = diamond;
+			this.displacement = displacement;
+			this.seed = seed;
+			this.level = level;
+			this.row0 = row0;
+			this.row1 = row1;
+		}
+
+		boolean isLarge() {
+			return (long)(row1 - row0) * (mapSize / step) >= 2 * MIN_POINTS_PER_TASK;
+		}
+
+		@Override
+		protected void compute() {
+			if (isLarge() && row1 - row0 > 1) {
+				int middle = (row0 + row1) >>> 1;
+				invokeAll(new Pass(map, mapSize, step, diamond, displacement, seed, level, row0, middle),
+						new Pass(map, mapSize, step, diamond, displacement, seed, level, middle, row1));
+				return;
+			}
+			int half = step / 2, mask = mapSize - 1;
+			for (int row = row0; row < row1; row++) {
+				if (diamond) {
+					int y = row * step + half;
+					int above = (y - half) & mask, below = (y + half) & mask;
+					for (int x = half; x < mapSize; x += step) {
+						int left = (x - half) & mask, right = (x + half) & mask;
+						float avg = (map.get(above * mapSize + left) + map.get(above * mapSize + right) +
+								map.get(below * mapSize + left) + map.get(below * mapSize + right)) * 0.25f;
+						map.put(y * mapSize + x, avg + random(seed, level, x, y) * displacement);
+					}
+				} else {
+					int y = row * half;
+					int above = (y - half) & mask, below = (y + half) & mask;
+					// Rows on the grid hold horizontal edges, rows between
+					// them vertical ones.
+					for (int x = (row & 1) == 0 ? half : 0; x < mapSize; x += step) {
+						int left = (x - half) & mask, right = (x + half) & mask;
+						float avg = (map.get(above * mapSize + x) + map.get(below * mapSize + x) +
+								map.get(y * mapSize + left) + map.get(y * mapSize + right)) * 0.25f;
+						map.put(y * mapSize + x, avg + random(seed, level, x, y) * displacement);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A number in [0, 1) for a point of a level: the murmur3 finalizer of
+	 * the seed and the point's coordinates.
+	 */
+	static float random(long seed, int level, int x, int y) {
+		long h = seed + level * 0x9e3779b97f4a7c15L + x * 0xc2b2ae3d27d4eb4fL + y * 0x165667b19e3779f9L;
+		h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+		h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (h >>> 40) * 0x1p-24f;
+	}
+}
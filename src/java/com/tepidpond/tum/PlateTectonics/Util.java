@@ -6,6 +6,7 @@ import java.awt.Graphics2D;
 import java.awt.Insets;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.nio.FloatBuffer;
 
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
@@ -129,6 +130,92 @@ public class Util {
 		return a + (b - a) * X + (c - a) * Y + (a + d - (b + c)) * X * Y;
 	}
 	
+	/**
+	 * Sample a rectangle of the map at once. out[j * width + i] receives
+	 * exactly what quadInterpolate(map, mapSideLength, (x0 + i) * scale,
+	 * (y0 + j) * scale) returns, but the neighbours and weights of each
+	 * column and row are worked out only once, rather than for every sample.
+	 * 
+	 * @param x0 First X coordinate, before scaling (e.g. a block coordinate).
+	 * @param y0 First Y coordinate, before scaling.
+	 * @param width Number of columns to sample.
+	 * @param height Number of rows to sample.
+	 * @param scale Map tiles per unit of x0 and y0.
+	 * @param out Receives width * height samples, row by row.
+	 * @return out.
+	 */
+	public static float[] quadInterpolate(float[] map, int mapSideLength, int x0, int y0, int width, int height, float scale, float[] out) {
+		Columns columns = Columns.get(width);
+		int[] colA = columns.a, colB = columns.b;
+		float[] colWeight = columns.weight;
+		for (int i = 0; i < width; i++) {
+			float X = (float)(x0 + i) * scale;
+			int origin = (int)Math.round(X);
+			X -= origin;
+			origin %= mapSideLength; if (origin < 0) origin += mapSideLength;
+			colA[i] = origin;
+			if (X > 0) {
+				colB[i] = (origin + 1) % mapSideLength;
+			} else {
+				colB[i] = origin == 0 ? mapSideLength - 1: origin - 1;
+				X = -X;
+			}
+			colWeight[i] = X;
+		}
+		
+		for (int j = 0, o = 0; j < height; j++) {
+			float Y = (float)(y0 + j) * scale;
+			int origin = (int)Math.round(Y);
+			Y -= origin;
+			origin %= mapSideLength; if (origin < 0) origin += mapSideLength;
+			int rowB;
+			if (Y > 0) {
+				rowB = (origin + 1) % mapSideLength;
+			} else {
+				rowB = origin == 0 ? mapSideLength - 1: origin - 1;
+				Y = -Y;
+			}
+			int rowA = origin * mapSideLength;
+			rowB *= mapSideLength;
+			
+			for (int i = 0; i < width; i++, o++) {
+				float X = colWeight[i];
+				float a = map[rowA + colA[i]];
+				float b = map[rowA + colB[i]];
+				float c = map[rowB + colA[i]];
+				float d = map[rowB + colB[i]];
+				out[o] = a + (b - a) * X + (c - a) * Y + (a + d - (b + c)) * X * Y;
+			}
+		}
+		return out;
+	}
+	
+	/**
+	 * Neighbours and weights of the columns of a batch quadInterpolate(),
+	 * kept per thread so chunk generation does not allocate them per chunk.
+	 */
+	private static final class Columns {
+		private static final ThreadLocal<Columns> local = new ThreadLocal<Columns>();
+		final int[] a, b;
+		final float[] weight;
+		
+		private Columns(int width) {
+			a = new int[width];
+			b = new int[width];
+			weight = new float[width];
+		}
+		
+		/** Scratch for at least width columns. */
+		static Columns get(int width) {
+			Columns columns = local.get();
+			if (columns == null || columns.a.length < width) {
+				columns = new Columns(width);
+				local.set(columns);
+			}
+			return columns;
+		}
+	}
+	
 	public static BufferedImage renderIntmap(int intMap[], int mapWidth, int mapHeight) {
 		BufferedImage bi = new BufferedImage(mapWidth, mapHeight, BufferedImage.TYPE_INT_ARGB);
 		Graphics2D g = bi.createGraphics();
@@ -234,11 +321,16 @@ public class Util {
 	}
 	// force values in the heightMap into a standard [0.0f ... 1.0f] range.
 	public static void normalizeHeightMap(float heightMap[]) {
-		int mapArea = heightMap.length;
-		float minHeight = heightMap[0], maxHeight = heightMap[0];
+		normalizeHeightMap(FloatBuffer.wrap(heightMap));
+	}
+	
+	// force values in the heightMap into a standard [0.0f ... 1.0f] range.
+	public static void normalizeHeightMap(FloatBuffer heightMap) {
+		int mapArea = heightMap.capacity();
+		float minHeight = heightMap.get(0), maxHeight = heightMap.get(0);
 		for (int i = 1; i < mapArea; i++) {
-			if (heightMap[i] < minHeight) minHeight = heightMap[i];
-			if (heightMap[i] > maxHeight) maxHeight = heightMap[i];
+			if (heightMap.get(i) < minHeight) minHeight = heightMap.get(i);
+			if (heightMap.get(i) > maxHeight) maxHeight = heightMap.get(i);
 		}
 		
 		float scaleFactor = maxHeight - minHeight;
@@ -246,7 +338,7 @@ public class Util {
 		//if (min != 0.0f || max != 1.0f) scaleFactor /= (max - min);
 
 		for (int i = 0; i < mapArea; i++) {
-			heightMap[i] = (heightMap[i] - minHeight) / scaleFactor;
+			heightMap.put(i, (heightMap.get(i) - minHeight) / scaleFactor);
 		}
 	}
 	
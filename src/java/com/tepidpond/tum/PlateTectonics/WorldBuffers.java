@@ -0,0 +1,112 @@
+package com.tepidpond.tum.PlateTectonics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Where Lithosphere keeps its world-sized maps.
+ *
+ * Small worlds use ordinary heap buffers. A 4096x4096 world needs 64MB for
+ * each map, which is better kept away from the garbage collector of a server
+ * sharing the JVM, so large worlds use direct buffers and the largest use
+ * buffers mapped from temporary files, which the OS can page out. The
+ * simulation gives the same results with all of them.
+ *
+ * Only the simulation's working maps are kept here. The finished heightmap
+ * that getHeightmap() hands out, and that the world stores, is a heap
+ * float[] whatever these are.
+ */
+public enum WorldBuffers {
+	HEAP, DIRECT, MAPPED;
+
+	private static final int DIRECT_MIN_SIZE = 2048;
+	private static final int MAPPED_MIN_SIZE = 4096;
+
+	/**
+	 * The kind of buffers used by default for a world of the given size.
+	 */
+	public static WorldBuffers forMapSize(int mapSize) {
+		if (mapSize >= MAPPED_MIN_SIZE) return MAPPED;
+		if (mapSize >= DIRECT_MIN_SIZE) return DIRECT;
+		return HEAP;
+	}
+
+	/**
+	 * Allocate a zeroed buffer of count floats.
+	 */
+	FloatBuffer allocateFloats(int count) {
+		if (this == HEAP)
+			return FloatBuffer.allocate(count);
+		return allocateBytes((long)count * 4).asFloatBuffer();
+	}
+
+	/**
+	 * Allocate a zeroed buffer of count ints.
+	 */
+	IntBuffer allocateInts(int count) {
+		if (this == HEAP)
+			return IntBuffer.allocate(count);
+		return allocateBytes((long)count * 4).asIntBuffer();
+	}
+
+	private ByteBuffer allocateBytes(long size) {
+		if (this == MAPPED) {
+			try {
+				return map(size).order(ByteOrder.nativeOrder());
+			} catch (IOException e) {
+				// No usable temporary directory. Direct memory will do.
+			}
+		}
+		return ByteBuffer.allocateDirect((int)size).order(ByteOrder.nativeOrder());
+	}
+
+	private static ByteBuffer map(long size) throws IOException {
+		File file = File.createTempFile("tum-world", ".bin");
+		file.deleteOnExit();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			// The mapping stays valid after the file is closed and, where the
+			// OS allows it, deleted.
+			raf.close();
+			file.delete();
+		}
+	}
+
+	static void fill(FloatBuffer buffer, float value) {
+		if (buffer.hasArray()) {
+			Arrays.fill(buffer.array(), buffer.arrayOffset(), buffer.arrayOffset() + buffer.capacity(), value);
+			return;
+		}
+		for (int i = 0; i < buffer.capacity(); i++)
+			buffer.put(i, value);
+	}
+
+	static void fill(IntBuffer buffer, int value) {
+		if (buffer.hasArray()) {
+			Arrays.fill(buffer.array(), buffer.arrayOffset(), buffer.arrayOffset() + buffer.capacity(), value);
+			return;
+		}
+		for (int i = 0; i < buffer.capacity(); i++)
+			buffer.put(i, value);
+	}
+
+	/**
+	 * Copy all of src into dst, which must be as large.
+	 */
+	static void copy(IntBuffer src, IntBuffer dst) {
+		IntBuffer from = src.duplicate();
+		from.clear();
+		IntBuffer to = dst.duplicate();
+		to.clear();
+		to.put(from);
+	}
+}
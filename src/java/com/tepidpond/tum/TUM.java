@@ -1,18 +1,30 @@
 package com.tepidpond.tum;
 
+import java.io.File;
+
 import net.minecraft.world.WorldType;
 import net.minecraftforge.common.DimensionManager;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.common.config.Configuration;
 
+import com.tepidpond.tum.FarTerrain.TerrainSource;
 import com.tepidpond.tum.PlateTectonics.Lithosphere;
 import com.tepidpond.tum.PlateTectonics.Util;
+import com.tepidpond.tum.WorldGen.HeightMapCache;
+import com.tepidpond.tum.WorldGen.HeightMapGenerator;
+import com.tepidpond.tum.WorldGen.PregenerateCommand;
+import com.tepidpond.tum.WorldGen.Pregenerator;
 import com.tepidpond.tum.WorldGen.TUMProvider;
 import com.tepidpond.tum.WorldGen.TUMWorldType;
 
 import cpw.mods.fml.client.FMLClientHandler;
+import cpw.mods.fml.common.FMLCommonHandler;
+import cpw.mods.fml.common.Loader;
 import cpw.mods.fml.common.Mod;
 import cpw.mods.fml.common.Mod.EventHandler;
 import cpw.mods.fml.common.event.FMLInitializationEvent;
+import cpw.mods.fml.common.event.FMLServerStartingEvent;
+import cpw.mods.fml.common.event.FMLServerStoppingEvent;
 
 @Mod(modid = TUM.MODID, version = TUM.VERSION)
 public class TUM
@@ -59,6 +71,41 @@ public class TUM
     	
     	DimensionManager.registerProviderType(0, TUMProvider.class, true);
     	DimensionManager.registerDimension(0, 0);
+    	
+    	FMLCommonHandler.instance().bus().register(new HeightMapGenerator.ProgressNotifier());
+    	FMLCommonHandler.instance().bus().register(new Pregenerator.Ticker());
+    	
+    	loadConfig(new File(Loader.instance().getConfigDir(), MODID + ".cfg"));
+    }
+    
+    private void loadConfig(File file) {
+    	Configuration config = new Configuration(file);
+    	config.load();
+    	boolean cacheEnabled = config.getBoolean("enabled", "heightmapCache", true,
+    			"Reuse heightmaps simulated for earlier worlds with the same seed and settings.");
+    	int cacheMegabytes = config.getInt("maxMegabytes", "heightmapCache", 256, 1, 1 << 20,
+    			"Disk space the heightmap cache may use. Least recently used maps are deleted first.");
+    	if (cacheEnabled) {
+    		File cacheDir = new File(Loader.instance().getConfigDir().getParentFile(), MODID + File.separator + "heightmapCache");
+    		HeightMapCache.configure(cacheDir, cacheMegabytes * 1024L * 1024L);
+    	}
+    	HeightMapGenerator.configure(config.getInt("simulationThreads", "heightmapGenerator", 0, 0, 256,
+    			"Threads the plate simulation may use. 0 uses one fewer than the processors."));
+    	if (config.hasChanged())
+    		config.save();
+    }
+    
+    @EventHandler
+    public void serverStarting(FMLServerStartingEvent event)
+    {
+    	event.registerServerCommand(new PregenerateCommand());
+    }
+    
+    @EventHandler
+    public void serverStopping(FMLServerStoppingEvent event)
+    {
+    	Pregenerator.stopAll();
+    	TerrainSource.clear();
     }
     
     @EventHandler
@@ -0,0 +1,211 @@
+package com.tepidpond.tum.WorldGen;
+
+import java.util.Random;
+
+import net.minecraft.world.biome.BiomeGenBase;
+
+/**
+ * Counts of the tiles of each biome of a BiomeMap, and of land, over any
+ * rectangle of tiles, for finding biomes without sampling every tile or
+ * generating chunks.
+ *
+ * The map is cut into cells of CELL x CELL tiles, one chunk each, and each
+ * biome has a summed-area table of its tiles per cell. A rectangle's count
+ * is read from the tables for the cells it covers whole, and the tiles along
+ * its edges that are only in part of a cell are looked up one by one.
+ * Rectangles wrap, like the map.
+ *
+ * Biome sets are arrays of 256 flags indexed by biome id; null means land,
+ * which is every biome but ocean and deep ocean.
+ */
+public class BiomeIndex {
+	/** Tiles along the side of a cell. */
+	public static final int CELL = 4;
+
+	private final BiomeMap biomes;
+	private final int mapSize, cell, cells;
+	// Per biome id, null where the map has none: the number of its tiles in
+	// cells [0, cx) x [0, cy) at index cy * (cells + 1) + cx.
+	private final int[][] tables = new int[256][];
+	private final boolean[] land = new boolean[256];
+
+	private BiomeIndex(BiomeMap biomes) {
+		this.biomes = biomes;
+		this.mapSize = biomes.getMapSize();
+		this.cell = Math.min(CELL, mapSize);
+		this.cells = mapSize / cell;
+		for (int id = 0; id < 256; id++)
+			land[id] = id != BiomeGenBase.ocean.biomeID && id != BiomeGenBase.deepOcean.biomeID;
+	}
+
+	public static BiomeIndex build(BiomeMap biomes) {
+		BiomeIndex index = new BiomeIndex(biomes);
+		int side = index.cells + 1;
+		for (int y = 0; y < index.mapSize; y++) {
+			for (int x = 0; x < index.mapSize; x++) {
+				int id = biomes.getBiomeIdAtTile(x, y);
+				if (index.tables[id] == null)
+					index.tables[id] = new int[side * side];
+				index.tables[id][(y / index.cell + 1) * side + x / index.cell + 1]++;
+			}
+		}
+		for (int[] table: index.tables) {
+			if (table == null)
+				continue;
+			for (int cy = 1; cy < side; cy++)
+				for (int cx = 1; cx < side; cx++)
+					table[cy * side + cx] += table[(cy - 1) * side + cx] + table[cy * side + cx - 1] - table[(cy - 1) * side + cx - 1];
+		}
+		return index;
+	}
+
+	public BiomeMap getBiomeMap() { return biomes; }
+	public int getMapSize()       { return mapSize; }
+
+	/**
+	 * Whether a tile is in a biome set.
+	 */
+	public boolean matches(boolean[] set, int tileX, int tileY) {
+		return (set != null ? set : land)[biomes.getBiomeIdAtTile(tileX, tileY)];
+	}
+
+	/**
+	 * Number of tiles of a rectangle in a biome set. Rectangles larger than
+	 * the map count each tile once.
+	 */
+	public int count(boolean[] set, int x, int y, int width, int height) {
+		if (set == null)
+			set = land;
+		width = Math.min(width, mapSize);
+		height = Math.min(height, mapSize);
+		if (width <= 0 || height <= 0)
+			return 0;
+		x = wrap(x);
+		y = wrap(y);
+		int xEnd = Math.min(x + width, mapSize), xWrap = x + width - xEnd;
+		int yEnd = Math.min(y + height, mapSize), yWrap = y + height - yEnd;
+		return countWithin(set, x, y, xEnd, yEnd) + countWithin(set, 0, y, xWrap, yEnd)
+				+ countWithin(set, x, 0, xEnd, yWrap) + countWithin(set, 0, 0, xWrap, yWrap);
+	}
+
+	/**
+	 * Count [x0, x1) x [y0, y1), which must not wrap.
+	 */
+	private int countWithin(boolean[] set, int x0, int y0, int x1, int y1) {
+		if (x0 >= x1 || y0 >= y1)
+			return 0;
+		// Cells wholly inside the rectangle.
+		int cx0 = (x0 + cell - 1) / cell, cx1 = x1 / cell;
+		int cy0 = (y0 + cell - 1) / cell, cy1 = y1 / cell;
+		if (cx0 >= cx1 || cy0 >= cy1) {
+			cx0 = cx1 = x0 / cell;
+			cy0 = cy1 = y0 / cell;
+		}
+		int side = cells + 1, sum = 0;
+		for (int id = 0; id < 256; id++) {
+			int[] table = tables[id];
+			if (set[id] && table != null)
+				sum += table[cy1 * side + cx1] - table[cy0 * side + cx1] - table[cy1 * side + cx0] + table[cy0 * side + cx0];
+		}
+		// The tiles around them.
+		int innerX0 = cx0 * cell, innerX1 = cx1 * cell, innerY0 = cy0 * cell, innerY1 = cy1 * cell;
+		for (int y = y0; y < y1; y++) {
+			if (y >= innerY0 && y < innerY1) {
+				sum += scan(set, y, x0, innerX0) + scan(set, y, innerX1, x1);
+			} else {
+				sum += scan(set, y, x0, x1);
+			}
+		}
+		return sum;
+	}
+
+	private int scan(boolean[] set, int y, int x0, int x1) {
+		int sum = 0;
+		for (int x = x0; x < x1; x++)
+			if (set[biomes.getBiomeIdAtTile(x, y)]) sum++;
+		return sum;
+	}
+
+	/**
+	 * Pick a tile of a rectangle in a biome set, every such tile being as
+	 * likely as any other.
+	 * @param out Receives the tile's x and y, in the same copy of the map as
+	 *            the rectangle's corner.
+	 * @return Whether the rectangle has any tiles in the set.
+	 */
+	public boolean findRandom(boolean[] set, int x, int y, int width, int height, Random rand, int[] out) {
+		width = Math.min(width, mapSize);
+		height = Math.min(height, mapSize);
+		int total = count(set, x, y, width, height);
+		if (total == 0)
+			return false;
+		int pick = rand.nextInt(total);
+		// Down to the band of rows holding the tile, then the row, then the tile.
+		int row = y;
+		for (int band = 0; band < height; band += cell) {
+			int rows = Math.min(cell, height - band), n = count(set, x, y + band, width, rows);
+			if (pick < n) {
+				row = y + band;
+				break;
+			}
+			pick -= n;
+		}
+		for (;; row++) {
+			int n = count(set, x, row, width, 1);
+			if (pick < n)
+				break;
+			pick -= n;
+		}
+		for (int i = x; ; i++) {
+			if (matches(set, i, row) && pick-- == 0) {
+				out[0] = i;
+				out[1] = row;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Find the tile in a biome set nearest to a tile.
+	 * @param radius Furthest to look along either axis, in tiles.
+	 * @param out Receives the tile's x and y, in the same copy of the map as
+	 *            (x, y).
+	 * @return Whether there is a tile in the set within radius.
+	 */
+	public boolean findNearest(boolean[] set, int x, int y, int radius, int[] out) {
+		radius = Math.min(radius, mapSize / 2);
+		if (count(set, x - radius, y - radius, 2 * radius + 1, 2 * radius + 1) == 0)
+			return false;
+		// The least square around (x, y) holding a tile of the set.
+		int lo = 0, hi = radius;
+		while (lo < hi) {
+			int r = (lo + hi) / 2;
+			if (count(set, x - r, y - r, 2 * r + 1, 2 * r + 1) > 0)
+				hi = r;
+			else
+				lo = r + 1;
+		}
+		// Its tiles are at least lo away, but one on a further ring may be
+		// nearer than one in a corner of this one.
+		long best = Long.MAX_VALUE;
+		for (int r = lo; r <= radius && (long)r * r < best; r++) {
+			for (int dy = -r; dy <= r; dy++) {
+				int step = dy == -r || dy == r ? 1 : 2 * r;
+				for (int dx = -r; dx <= r; dx += step) {
+					long d = (long)dx * dx + (long)dy * dy;
+					if (d < best && matches(set, x + dx, y + dy)) {
+						best = d;
+						out[0] = x + dx;
+						out[1] = y + dy;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private int wrap(int tile) {
+		tile %= mapSize;
+		return tile < 0 ? tile + mapSize : tile;
+	}
+}
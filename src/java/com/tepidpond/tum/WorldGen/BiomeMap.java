@@ -0,0 +1,144 @@
+package com.tepidpond.tum.WorldGen;
+
+import net.minecraft.world.biome.BiomeGenBase;
+
+import com.tepidpond.tum.PlateTectonics.Lithosphere;
+
+/**
+ * Biome of every heightmap tile, worked out once from the heightmap so a
+ * lookup is a single array read.
+ *
+ * Tiles below CONTINENTAL_BASE are sea, deep where they are below half of
+ * it. Land is classed by its height above CONTINENTAL_BASE, as a fraction of
+ * the highest peak, and by its distance from the sea: the shore is beach and
+ * low land far inland is desert. Coordinates wrap, like the heightmap.
+ *
+ * Apart from TUMBiome.plains the biomes are vanilla's own, so TUM worlds do
+ * not replace the vanilla biomes of other worlds.
+ */
+public class BiomeMap {
+	private static final float DEEP_OCEAN_DEPTH = 0.5f * Lithosphere.CONTINENTAL_BASE;
+	// Heights above CONTINENTAL_BASE, relative to the highest peak.
+	private static final float BEACH_ELEVATION = 0.02f;
+	private static final float HILLS_ELEVATION = 0.08f;
+	private static final float MOUNTAINS_ELEVATION = 0.25f;
+	// Distances from the sea, in tiles.
+	private static final int BEACH_DISTANCE = 1;
+	private static final int DESERT_DISTANCE = 32;
+
+	private final int mapSize;
+	private final float scale;
+	// Biome ids, indexed like the heightmap.
+	private final byte[] biomes;
+
+	private BiomeMap(int mapSize, float scale, byte[] biomes) {
+		this.mapSize = mapSize;
+		this.scale = scale;
+		this.biomes = biomes;
+	}
+
+	/**
+	 * @param heightMap Finished heightmap.
+	 * @param max Highest value in heightMap.
+	 * @param scale Heightmap tiles per block.
+	 */
+	public static BiomeMap build(float[] heightMap, int mapSize, float max, float scale) {
+		int[] seaDistance = distanceFromSea(heightMap, mapSize);
+		float elevationScale = max > Lithosphere.CONTINENTAL_BASE ? 1f / (max - Lithosphere.CONTINENTAL_BASE) : 0;
+		byte[] biomes = new byte[heightMap.length];
+		for (int i = 0; i < heightMap.length; i++) {
+			float h = heightMap[i];
+			BiomeGenBase biome;
+			if (h < DEEP_OCEAN_DEPTH) {
+				biome = BiomeGenBase.deepOcean;
+			} else if (h < Lithosphere.CONTINENTAL_BASE) {
+				biome = BiomeGenBase.ocean;
+			} else {
+				float elevation = (h - Lithosphere.CONTINENTAL_BASE) * elevationScale;
+				if (elevation >= MOUNTAINS_ELEVATION)
+					biome = BiomeGenBase.extremeHills;
+				else if (elevation >= HILLS_ELEVATION)
+					biome = BiomeGenBase.extremeHillsEdge;
+				else if (seaDistance[i] <= BEACH_DISTANCE && elevation < BEACH_ELEVATION)
+					biome = BiomeGenBase.beach;
+				else if (seaDistance[i] >= DESERT_DISTANCE)
+					biome = BiomeGenBase.desert;
+				else
+					biome = TUMBiome.plains;
+			}
+			biomes[i] = (byte) biome.biomeID;
+		}
+		return new BiomeMap(mapSize, scale, biomes);
+	}
+
+	/**
+	 * Steps from each tile to the nearest sea tile, moving along rows and
+	 * columns: a breadth-first search from every sea tile at once. Sea tiles
+	 * are 0. On a map without sea every tile is Integer.MAX_VALUE.
+	 */
+	private static int[] distanceFromSea(float[] heightMap, int mapSize) {
+		int[] distance = new int[heightMap.length];
+		int[] queue = new int[heightMap.length];
+		int head = 0, tail = 0;
+		for (int i = 0; i < heightMap.length; i++) {
+			if (heightMap[i] < Lithosphere.CONTINENTAL_BASE) {
+				queue[tail++] = i;
+			} else {
+				distance[i] = Integer.MAX_VALUE;
+			}
+		}
+		while (head < tail) {
+			int i = queue[head++];
+			int x = i % mapSize, y = i / mapSize, d = distance[i] + 1;
+			int row = y * mapSize;
+			int left = row + (x == 0 ? mapSize - 1 : x - 1);
+			int right = row + (x == mapSize - 1 ? 0 : x + 1);
+			int up = (y == 0 ? mapSize - 1 : y - 1) * mapSize + x;
+			int down = (y == mapSize - 1 ? 0 : y + 1) * mapSize + x;
+			if (distance[left] > d)  { distance[left] = d;  queue[tail++] = left; }
+			if (distance[right] > d) { distance[right] = d; queue[tail++] = right; }
+			if (distance[up] > d)    { distance[up] = d;    queue[tail++] = up; }
+			if (distance[down] > d)  { distance[down] = d;  queue[tail++] = down; }
+		}
+		return distance;
+	}
+
+	public int getMapSize() { return mapSize; }
+
+	/**
+	 * Biome id of a heightmap tile.
+	 */
+	public int getBiomeIdAtTile(int tileX, int tileY) {
+		return biomes[wrap(tileY) * mapSize + wrap(tileX)] & 0xff;
+	}
+
+	/**
+	 * Biome at a block: the biome of the nearest tile, the one the height of
+	 * the block is sampled around.
+	 */
+	public BiomeGenBase getBiome(int blockX, int blockZ) {
+		return BiomeGenBase.getBiome(getBiomeIdAtTile(Math.round(blockX * scale), Math.round(blockZ * scale)));
+	}
+
+	/**
+	 * Biomes of a rectangle of blocks, row by row.
+	 * @param step Blocks between samples; 4 for the quarter resolution of
+	 *             WorldChunkManager.getBiomesForGeneration().
+	 * @return out.
+	 */
+	public BiomeGenBase[] getBiomes(BiomeGenBase[] out, int x0, int z0, int width, int length, int step) {
+		for (int j = 0, o = 0; j < length; j++) {
+			int row = wrap(Math.round((z0 + j * step) * scale)) * mapSize;
+			for (int i = 0; i < width; i++, o++) {
+				int column = wrap(Math.round((x0 + i * step) * scale));
+				out[o] = BiomeGenBase.getBiome(biomes[row + column] & 0xff);
+			}
+		}
+		return out;
+	}
+
+	private int wrap(int tile) {
+		tile %= mapSize;
+		return tile < 0 ? tile + mapSize : tile;
+	}
+}
@@ -0,0 +1,174 @@
+package com.tepidpond.tum.WorldGen;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.tepidpond.tum.PlateTectonics.Lithosphere;
+import com.tepidpond.tum.PlateTectonics.Util;
+
+/**
+ * Rainfall and temperature of every heightmap tile, worked out once from the
+ * heightmap and kept in two HeightMapFiles next to it.
+ *
+ * Rows of the map are bands of latitude, from the equator at row 0 to a pole
+ * half way across; the map wraps, so the other half mirrors the first.
+ * Temperature falls towards the pole and with height above sea level.
+ * Rainfall follows the wet and dry latitude bands, and is carried by the
+ * prevailing wind of each band: air picks up moisture over the sea and drops
+ * it over land, most of all where the land rises, so the lee of a mountain
+ * range is dry. Values are on the scale of vanilla biomes: rainfall 0 to 1,
+ * temperature 1.5 on the equator down to below -1 on the highest peaks
+ * near the pole.
+ */
+public class Climate {
+	private static final float EQUATOR_TEMPERATURE = 1.5f;
+	private static final float POLE_TEMPERATURE = -0.3f;
+	// Temperature lost climbing from sea level to the highest peak.
+	private static final float LAPSE = 1.5f;
+	// Share of the air's moisture rained out per tile of flat land, and per
+	// unit of height climbed.
+	private static final float DRYING = 0.02f;
+	private static final float OROGRAPHIC = 0.8f;
+	// Share of the missing moisture picked up per tile of sea.
+	private static final float RECHARGE = 0.1f;
+
+	private final int mapSize;
+	private final float scale;
+	private final float[] rainfall, temperature;
+	// Hashes of the files the maps are kept in, if they have been saved.
+	private String rainfallHash, temperatureHash;
+
+	private Climate(int mapSize, float scale, float[] rainfall, float[] temperature) {
+		this.mapSize = mapSize;
+		this.scale = scale;
+		this.rainfall = rainfall;
+		this.temperature = temperature;
+	}
+
+	/**
+	 * @param heightMap Finished heightmap.
+	 * @param max Highest value in heightMap.
+	 * @param scale Heightmap tiles per block.
+	 */
+	public static Climate build(float[] heightMap, int mapSize, float max, float scale) {
+		float[] rainfall = new float[heightMap.length];
+		float[] temperature = new float[heightMap.length];
+		float elevationScale = max > Lithosphere.CONTINENTAL_BASE ? 1f / (max - Lithosphere.CONTINENTAL_BASE) : 0;
+
+		for (int y = 0; y < mapSize; y++) {
+			// 0 at the equator, 1 at the pole.
+			float latitude = Math.abs(y - (y <= mapSize / 2 ? 0 : mapSize)) / (mapSize / 2f);
+			float angle = latitude * (float)Math.PI / 2;
+			float seaTemperature = POLE_TEMPERATURE + (EQUATOR_TEMPERATURE - POLE_TEMPERATURE) * (float)Math.cos(angle);
+			// Wet at the equator and around 60 degrees, dry around 30 and at the pole.
+			float bandRainfall = 0.5f + 0.4f * (float)Math.cos(6 * angle);
+			// Trade winds and polar easterlies blow west, westerlies east.
+			boolean westerly = latitude > 1f / 3f && latitude <= 2f / 3f;
+
+			int row = y * mapSize;
+			for (int x = 0; x < mapSize; x++) {
+				float h = heightMap[row + x];
+				float elevation = Math.max(0, h - Lithosphere.CONTINENTAL_BASE) * elevationScale;
+				temperature[row + x] = seaTemperature - LAPSE * elevation;
+			}
+			sweep(heightMap, mapSize, row, westerly ? 1 : -1, bandRainfall, rainfall);
+		}
+		return new Climate(mapSize, scale, rainfall, temperature);
+	}
+
+	/**
+	 * Carry moisture along a row in the direction of the wind. The row wraps,
+	 * so it is walked twice and the rain recorded only on the second lap,
+	 * once the moisture coming round the end is known.
+	 */
+	private static void sweep(float[] heightMap, int mapSize, int row, int step, float bandRainfall, float[] rainfall) {
+		float moisture = 1;
+		int x = step > 0 ? 0 : mapSize - 1;
+		float previous = heightMap[row + x];
+		for (int n = 0; n < 2 * mapSize; n++) {
+			float h = heightMap[row + x];
+			float rain;
+			if (h < Lithosphere.CONTINENTAL_BASE) {
+				moisture += (1 - moisture) * RECHARGE;
+				rain = moisture;
+			} else {
+				float climb = Math.max(0, h - previous);
+				float loss = Math.min(1, DRYING + OROGRAPHIC * climb);
+				rain = Math.min(1, moisture * (1 + OROGRAPHIC * climb));
+				moisture -= moisture * loss;
+			}
+			if (n >= mapSize)
+				rainfall[row + x] = Math.min(1, bandRainfall * rain);
+			previous = h;
+			x += step;
+			if (x == mapSize) x = 0;
+			else if (x < 0) x = mapSize - 1;
+		}
+	}
+
+	/**
+	 * Load a climate written by write().
+	 * @throws IOException If a file is missing, damaged or not the one
+	 *                     expected.
+	 */
+	public static Climate read(File rainfallFile, String rainfallHash, File temperatureFile, String temperatureHash, float scale) throws IOException {
+		HeightMapFile rain = HeightMapFile.read(rainfallFile, rainfallHash);
+		HeightMapFile temp = HeightMapFile.read(temperatureFile, temperatureHash);
+		if (rain.getMapSize() != temp.getMapSize())
+			throw new IOException("Climate files do not match.");
+		Climate climate = new Climate(rain.getMapSize(), scale, rain.getMap(), temp.getMap());
+		climate.rainfallHash = rain.getHash();
+		climate.temperatureHash = temp.getHash();
+		return climate;
+	}
+
+	/**
+	 * Save the climate. The hashes of the files are then available from
+	 * getRainfallHash() and getTemperatureHash().
+	 */
+	public void write(File rainfallFile, File temperatureFile) throws IOException {
+		rainfallHash = write(rainfallFile, rainfall);
+		temperatureHash = write(temperatureFile, temperature);
+	}
+
+	private String write(File file, float[] map) throws IOException {
+		float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+		for (float v: map) {
+			if (v < min) min = v;
+			if (v > max) max = v;
+		}
+		return HeightMapFile.write(file, map, mapSize, min, max, HeightMapFile.Format.FLOAT32);
+	}
+
+	public int getMapSize()            { return mapSize; }
+	public String getRainfallHash()    { return rainfallHash; }
+	public String getTemperatureHash() { return temperatureHash; }
+
+	/**
+	 * Rainfall of a rectangle of blocks, row by row, interpolated between
+	 * tiles like the heightmap.
+	 * @return out, or a new array if out is too small.
+	 */
+	public float[] getRainfall(float[] out, int x0, int z0, int width, int length) {
+		return sample(rainfall, out, x0, z0, width, length);
+	}
+
+	/**
+	 * Temperature at the surface of a rectangle of blocks, row by row.
+	 * @return out, or a new array if out is too small.
+	 */
+	public float[] getTemperature(float[] out, int x0, int z0, int width, int length) {
+		return sample(temperature, out, x0, z0, width, length);
+	}
+
+	private float[] sample(float[] map, float[] out, int x0, int z0, int width, int length) {
+		if (out == null || out.length < width * length)
+			out = new float[width * length];
+		for (int j = 0, o = 0; j < length; j++) {
+			float Y = (z0 + j) * scale;
+			for (int i = 0; i < width; i++, o++)
+				out[o] = Util.quadInterpolate(map, mapSize, (x0 + i) * scale, Y);
+		}
+		return out;
+	}
+}
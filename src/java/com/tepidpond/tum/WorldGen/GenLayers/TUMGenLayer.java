@@ -1,14 +1,25 @@
 package com.tepidpond.tum.WorldGen.GenLayers;
 
 import net.minecraft.world.gen.layer.GenLayer;
+import net.minecraft.world.gen.layer.IntCache;
 
 import com.tepidpond.tum.G;
 
+/**
+ * A layer that fills regions of ints supplied by the caller.
+ *
+ * Random numbers are a hash of the world seed, the layer, the cell and a
+ * draw number rather than a sequence, so a cell always gets the same value,
+ * whatever region it is in and whatever else has been generated. Regions can
+ * therefore be computed in any order, and on several threads at once once
+ * initWorldGenSeed() has been called. Parents are read into a scratch array
+ * per layer and thread, so nothing is allocated once the arrays have grown.
+ */
 public abstract class TUMGenLayer extends GenLayer {
 	protected long worldGenSeed;
 	protected TUMGenLayer parent;
-	protected long chunkSeed;
 	protected long baseSeed;
+	private final ThreadLocal<int[]> scratch = new ThreadLocal<int[]>();
 
 	public TUMGenLayer(long Seed) {
 		super(Seed);
@@ -18,43 +29,78 @@ public abstract class TUMGenLayer extends GenLayer {
 			this.baseSeed += Seed;
 		}
 	}
-	
+
 	@Override
 	public void initWorldGenSeed(long Seed)
 	{
 		this.worldGenSeed = Seed;
 		if (this.parent!=null)
 			parent.initWorldGenSeed(Seed);
-		
+
 		for (int k=0; k<3; k++) {
 			worldGenSeed *= worldGenSeed * G.LCG_Mult_A + G.LCG_Inc_C;
 			worldGenSeed += baseSeed;
 		}
 	}
-	
+
+	/**
+	 * Fill out with the values of a region, row by row: the cell (x, z) goes
+	 * to out[(x - x0) + (z - z0) * width].
+	 */
+	public abstract void fill(int x0, int z0, int width, int height, int[] out);
+
 	/**
-	 * Initialize layer's current chunkSeed based on the local worldGenSeed and the (x,z) chunk coordinates.
+	 * For vanilla callers. The result is in IntCache, so it is only good
+	 * until the cache is next reset.
 	 */
 	@Override
-	public void initChunkSeed(long chunkX, long chunkZ)
+	public int[] getInts(int x0, int z0, int width, int height) {
+		int[] out = IntCache.getIntCache(width * height);
+		fill(x0, z0, width, height, out);
+		return out;
+	}
+
+	/**
+	 * This layer's scratch array for the calling thread, of at least size ints.
+	 * Its contents are whatever was left in it.
+	 */
+	protected int[] scratch(int size) {
+		int[] a = scratch.get();
+		if (a == null || a.length < size) {
+			a = new int[size];
+			scratch.set(a);
+		}
+		return a;
+	}
+
+	/**
+	 * A random number in [0, bound) for a cell. Different draws for the same
+	 * cell are independent.
+	 */
+	protected int random(int x, int z, int draw, int bound)
+	{
+		long h = worldGenSeed + x * 0x9e3779b97f4a7c15L + z * 0xc2b2ae3d27d4eb4fL + draw * 0x165667b19e3779f9L;
+		return (int)((mix(h) >>> 1) % bound);
+	}
+
+	/**
+	 * Pick one of a, b, c and d at random.
+	 */
+	protected int choose(int x, int z, int draw, int a, int b, int c, int d)
 	{
-		chunkSeed = worldGenSeed;
-		for (int k=0; k<2; k++) {
-			chunkSeed *= chunkSeed * G.LCG_Mult_A + G.LCG_Inc_C;
-			chunkSeed += chunkX;
-			chunkSeed *= chunkSeed * G.LCG_Mult_A + G.LCG_Inc_C;
-			chunkSeed += chunkZ;
+		switch (random(x, z, draw, 4)) {
+		case 0:  return a;
+		case 1:  return b;
+		case 2:  return c;
+		default: return d;
 		}
 	}
 
-	@Override
-	protected int nextInt(int max)
+	// Finalizer of MurmurHash3; every input bit affects every output bit.
+	private static long mix(long h)
 	{
-		int ret = (int)((this.chunkSeed >> 24) % max);
-		if (ret < 0)
-			ret += max;
-		chunkSeed *= chunkSeed * G.LCG_Mult_A + G.LCG_Inc_C;
-		chunkSeed += worldGenSeed;
-		return ret;
+		h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+		h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
 	}
 }
@@ -0,0 +1,40 @@
+package com.tepidpond.tum.WorldGen.GenLayers;
+
+import com.tepidpond.tum.WorldGen.BiomeMap;
+
+/**
+ * Biome ids of the heightmap, one cell per heightmap tile. The root of the
+ * biome layers of a world.
+ */
+public class TUMGenLayerBiomeMap extends TUMGenLayer {
+	private final BiomeMap biomes;
+
+	public TUMGenLayerBiomeMap(long Seed, BiomeMap biomes) {
+		super(Seed);
+		this.biomes = biomes;
+	}
+
+	@Override
+	public void fill(int x0, int z0, int width, int height, int[] out) {
+		for (int z = 0; z < height; z++)
+			for (int x = 0; x < width; x++)
+				out[x + z * width] = biomes.getBiomeIdAtTile(x0 + x, z0 + z);
+	}
+
+	/**
+	 * Build the layers that take a world's biomes from the heightmap tiles
+	 * down to single blocks.
+	 * @param zooms Times to double the resolution: log2 of the blocks per
+	 *              heightmap tile.
+	 * @return The last layer, with its seeds initialized.
+	 */
+	public static TUMGenLayer initializeBiomeLayers(long seed, BiomeMap biomes, int zooms) {
+		TUMGenLayer layer = new TUMGenLayerBiomeMap(1L, biomes);
+		for (int i = 0; i < zooms; i++) {
+			layer = new TUMGenLayerZoom(1000L + i, layer);
+			layer = new TUMGenLayerSmooth(2000L + i, layer);
+		}
+		layer.initWorldGenSeed(seed);
+		return layer;
+	}
+}
@@ -0,0 +1,37 @@
+package com.tepidpond.tum.WorldGen.GenLayers;
+
+/**
+ * Removes the jagged single cells that zooming leaves: a cell between two
+ * equal neighbours, left and right or above and below, takes their value.
+ */
+public class TUMGenLayerSmooth extends TUMGenLayer {
+
+	public TUMGenLayerSmooth(long Seed, TUMGenLayer parent) {
+		super(Seed);
+		this.parent = parent;
+	}
+
+	@Override
+	public void fill(int x0, int z0, int width, int height, int[] out) {
+		int pWidth = width + 2, pHeight = height + 2;
+		int[] p = scratch(pWidth * pHeight);
+		parent.fill(x0 - 1, z0 - 1, pWidth, pHeight, p);
+
+		for (int z = 0; z < height; z++) {
+			for (int x = 0; x < width; x++) {
+				int i = (x + 1) + (z + 1) * pWidth;
+				int left = p[i - 1], right = p[i + 1], up = p[i - pWidth], down = p[i + pWidth];
+				int value;
+				if (left == right && up == down)
+					value = random(x0 + x, z0 + z, 0, 2) == 0 ? left : up;
+				else if (left == right)
+					value = left;
+				else if (up == down)
+					value = up;
+				else
+					value = p[i];
+				out[x + z * width] = value;
+			}
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.tepidpond.tum.WorldGen.GenLayers;
+
+/**
+ * Doubles the resolution of its parent. Each parent cell becomes four; the
+ * new cells between two parent cells take one of them at random, and the
+ * one between four takes the most common of them.
+ */
+public class TUMGenLayerZoom extends TUMGenLayer {
+
+	public TUMGenLayerZoom(long Seed, TUMGenLayer parent) {
+		super(Seed);
+		this.parent = parent;
+	}
+
+	@Override
+	public void fill(int x0, int z0, int width, int height, int[] out) {
+		int px0 = x0 >> 1, pz0 = z0 >> 1;
+		int pWidth = ((x0 + width - 1) >> 1) - px0 + 2;
+		int pHeight = ((z0 + height - 1) >> 1) - pz0 + 2;
+		int[] p = scratch(pWidth * pHeight);
+		parent.fill(px0, pz0, pWidth, pHeight, p);
+
+		for (int z = 0; z < height; z++) {
+			int az = z0 + z;
+			int row = ((az >> 1) - pz0) * pWidth;
+			for (int x = 0; x < width; x++) {
+				int ax = x0 + x;
+				int i = row + (ax >> 1) - px0;
+				int a = p[i], b = p[i + 1], c = p[i + pWidth], d = p[i + pWidth + 1];
+				int value;
+				if ((ax & 1) == 0)
+					value = (az & 1) == 0 ? a : (random(ax, az, 0, 2) == 0 ? a : c);
+				else
+					value = (az & 1) == 0 ? (random(ax, az, 0, 2) == 0 ? a : b) : modeOrRandom(ax, az, a, b, c, d);
+				out[x + z * width] = value;
+			}
+		}
+	}
+
+	private int modeOrRandom(int x, int z, int a, int b, int c, int d) {
+		if (b == c && c == d) return b;
+		if (a == b && a == c) return a;
+		if (a == b && a == d) return a;
+		if (a == c && a == d) return a;
+		if (a == b && c != d) return a;
+		if (a == c && b != d) return a;
+		if (a == d && b != c) return a;
+		if (b == c && a != d) return b;
+		if (b == d && a != c) return b;
+		if (c == d && a != b) return c;
+		return choose(x, z, 1, a, b, c, d);
+	}
+}
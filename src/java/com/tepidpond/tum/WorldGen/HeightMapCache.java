@@ -0,0 +1,163 @@
+package com.tepidpond.tum.WorldGen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.tepidpond.tum.G;
+import com.tepidpond.tum.PlateTectonics.Fractal;
+import com.tepidpond.tum.PlateTectonics.Lithosphere;
+
+/**
+ * Finished heightmaps shared by every world on the machine.
+ *
+ * A heightmap depends only on the seed, the generator settings and the
+ * simulation code, so it is stored under a hash of those and any new world
+ * with the same ones loads it instead of running the simulation again.
+ * Entries are HeightMapFiles. When the cache grows past its budget, the
+ * entries used least recently are deleted; the modification time of an
+ * entry is its last use.
+ */
+public class HeightMapCache {
+	private static final Logger logger = LogManager.getLogger(G.ModID + ".WorldGen");
+	private static final String SUFFIX = ".bin";
+
+	// Disabled until configured.
+	private static volatile File directory;
+	private static volatile long maxBytes;
+
+	/**
+	 * @param directory Where to keep the cache, or null to disable it.
+	 * @param maxBytes Disk space the cache may use.
+	 */
+	public static void configure(File directory, long maxBytes) {
+		HeightMapCache.directory = directory;
+		HeightMapCache.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Name of the heightmap a world with these settings and seed generates.
+	 */
+	public static String key(TUMPerWorldData data, long seed) {
+		// A stream rather than a fixed-size buffer, so a setting added here
+		// cannot overflow it. The bytes are the same big-endian fields.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream settings = new DataOutputStream(bytes);
+		try {
+			settings.writeInt(Lithosphere.ENGINE_VERSION);
+			settings.writeLong(seed);
+			settings.writeInt(data.getMapSize());
+			settings.writeFloat(data.getLandSeaRatio());
+			settings.writeInt(data.getErosionPeriod());
+			settings.writeFloat(data.getFoldingRatio());
+			settings.writeInt(data.getAggrRatioAbs());
+			settings.writeFloat(data.getAggrRatioRel());
+			settings.writeInt(data.getMaxCycles());
+			settings.writeInt(data.getNumPlates());
+			settings.writeInt(data.getMaxGens());
+			// Left out for the original noise, so its worlds keep their keys.
+			if (data.getFractal() != Fractal.SQUARE_DIAMOND)
+				settings.writeInt(data.getFractal().ordinal());
+			settings.flush();
+		} catch (IOException e) {
+			// A ByteArrayOutputStream does not throw.
+			throw new AssertionError(e);
+		}
+
+		MessageDigest digest = HeightMapFile.sha1();
+		digest.update(bytes.toByteArray());
+		return HeightMapFile.toHex(digest.digest());
+	}
+
+	/**
+	 * Look up a heightmap.
+	 * @return The heightmap, or null if it is not cached.
+	 */
+	public static HeightMapFile get(String key) {
+		File dir = directory;
+		if (dir == null)
+			return null;
+		File file = new File(dir, key + SUFFIX);
+		if (!file.isFile())
+			return null;
+		try {
+			HeightMapFile cached = HeightMapFile.read(file, null);
+			file.setLastModified(System.currentTimeMillis());
+			return cached;
+		} catch (IOException e) {
+			logger.warn("Discarding unreadable cached heightmap " + file, e);
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Add a heightmap, then trim the cache back to its budget.
+	 */
+	public static void put(String key, float[] map, int mapSize) {
+		File dir = directory;
+		if (dir == null)
+			return;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			logger.warn("Could not create heightmap cache " + dir);
+			return;
+		}
+
+		float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+		for (float h: map) {
+			if (h < min) min = h;
+			if (h > max) max = h;
+		}
+		File file = new File(dir, key + SUFFIX);
+		try {
+			HeightMapFile.write(file, map, mapSize, min, max, HeightMapFile.Format.FLOAT32);
+		} catch (IOException e) {
+			logger.warn("Could not cache heightmap as " + file, e);
+			return;
+		}
+		evict(dir);
+	}
+
+	private static synchronized void evict(File dir) {
+		File[] entries = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(SUFFIX);
+			}
+		});
+		if (entries == null)
+			return;
+
+		long total = 0;
+		final long[] lastUsed = new long[entries.length];
+		Integer[] order = new Integer[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			total += entries[i].length();
+			lastUsed[i] = entries[i].lastModified();
+			order[i] = i;
+		}
+		// Oldest first. Times are read once, as other servers may touch them.
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(lastUsed[a], lastUsed[b]);
+			}
+		});
+		for (int i = 0; i < order.length && total > maxBytes; i++) {
+			File victim = entries[order[i]];
+			long size = victim.length();
+			if (victim.delete()) {
+				total -= size;
+				logger.info("Evicted cached heightmap " + victim.getName());
+			}
+		}
+	}
+}
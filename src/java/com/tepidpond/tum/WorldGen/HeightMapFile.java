@@ -0,0 +1,221 @@
+package com.tepidpond.tum.WorldGen;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A finished heightmap, stored in a file of its own next to the level data.
+ *
+ * The file is a short header followed by the map, encoded in bulk rather
+ * than a float at a time. It is written once, when the map is generated, and
+ * read in a single pass when loaded. TUMPerWorldData keeps only the SHA-1 of the
+ * file, so a file that does not belong to the world is never used.
+ */
+public class HeightMapFile {
+	private static final int MAGIC = 0x54554d48;	// "TUMH"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final int MAX_MAP_SIZE = 1 << 15;
+
+	public enum Format {
+		/** Exact 32-bit floats. */
+		FLOAT32,
+		/** Exact 32-bit floats, deflated. Smaller, but slower to write and read. */
+		FLOAT32_DEFLATE,
+		/** Heights quantized to 16 bits between the map's min and max. */
+		UINT16;
+
+		int bytesPerTile() { return this == UINT16 ? 2 : 4; }
+	}
+
+	private final int mapSize;
+	private final float[] map;
+	private final float min, max;
+	private final String hash;
+
+	private HeightMapFile(int mapSize, float[] map, float min, float max, String hash) {
+		this.mapSize = mapSize;
+		this.map = map;
+		this.min = min;
+		this.max = max;
+		this.hash = hash;
+	}
+
+	public int getMapSize()    { return mapSize; }
+	public float[] getMap()    { return map; }
+	public float getMin()      { return min; }
+	public float getMax()      { return max; }
+	/** Hex SHA-1 of the file's contents. */
+	public String getHash()    { return hash; }
+
+	/**
+	 * Write a heightmap. The file is replaced only once the new one is
+	 * complete.
+	 * @param min Lowest value in map.
+	 * @param max Highest value in map.
+	 * @return Hex SHA-1 of what was written, for read() to check.
+	 */
+	public static String write(File file, float[] map, int mapSize, float min, float max, Format format) throws IOException {
+		ByteBuffer payload = ByteBuffer.allocate(map.length * format.bytesPerTile());
+		if (format == Format.UINT16) {
+			float scale = max > min ? 65535f / (max - min) : 0;
+			for (int i = 0; i < map.length; i++)
+				payload.putShort(i * 2, (short)Math.round((map[i] - min) * scale));
+		} else {
+			payload.asFloatBuffer().put(map);
+		}
+		if (format == Format.FLOAT32_DEFLATE)
+			payload = deflate(payload);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(mapSize).putInt(format.ordinal()).putFloat(min).putFloat(max);
+		header.flip();
+
+		MessageDigest digest = sha1();
+		digest.update(header.duplicate());
+		digest.update(payload.duplicate());
+
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(tmp);
+		try {
+			FileChannel channel = stream.getChannel();
+			while (header.hasRemaining())
+				channel.write(header);
+			while (payload.hasRemaining())
+				channel.write(payload);
+			channel.force(false);
+		} finally {
+			stream.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Load a heightmap written by write().
+	 * @param expectedHash Hash returned by write(), or null to skip the check.
+	 * @throws IOException If the file is missing, damaged or not the one
+	 *                     expected.
+	 */
+	public static HeightMapFile read(File file, String expectedHash) throws IOException {
+		ByteBuffer data = readFully(file);
+		if (data.remaining() < HEADER_SIZE)
+			throw new IOException("Heightmap file is truncated.");
+
+		MessageDigest digest = sha1();
+		digest.update(data.duplicate());
+		String hash = toHex(digest.digest());
+		if (expectedHash != null && !expectedHash.equals(hash))
+			throw new IOException("Heightmap file does not match the world.");
+
+		if (data.getInt() != MAGIC || data.getInt() != VERSION)
+			throw new IOException("Not a heightmap file.");
+		int mapSize = data.getInt();
+		int formatIndex = data.getInt();
+		float min = data.getFloat(), max = data.getFloat();
+		if (mapSize < 1 || mapSize > MAX_MAP_SIZE || formatIndex < 0 || formatIndex >= Format.values().length)
+			throw new IOException("Corrupt heightmap file.");
+		Format format = Format.values()[formatIndex];
+
+		float[] map = new float[mapSize * mapSize];
+		ByteBuffer payload = data.slice();
+		if (format == Format.FLOAT32_DEFLATE)
+			payload = inflate(payload, map.length * 4);
+		if (payload.remaining() != map.length * format.bytesPerTile())
+			throw new IOException("Heightmap file is truncated.");
+
+		if (format == Format.UINT16) {
+			float scale = (max - min) / 65535f;
+			for (int i = 0; i < map.length; i++)
+				map[i] = min + (payload.getShort(i * 2) & 0xffff) * scale;
+		} else {
+			payload.asFloatBuffer().get(map);
+		}
+		return new HeightMapFile(mapSize, map, min, max, hash);
+	}
+
+	/**
+	 * Read a whole file into a heap buffer, for the maps to be copied out
+	 * of. Heightmap and pyramid files are read this way.
+	 */
+	static ByteBuffer readFully(File file) throws IOException {
+		FileInputStream stream = new FileInputStream(file);
+		try {
+			FileChannel channel = stream.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File is too large: " + file);
+			ByteBuffer data = ByteBuffer.allocate((int)size);
+			while (data.hasRemaining())
+				if (channel.read(data) < 0)
+					throw new IOException("File is truncated: " + file);
+			data.flip();
+			return data;
+		} finally {
+			stream.close();
+		}
+	}
+
+	private static ByteBuffer deflate(ByteBuffer src) {
+		Deflater deflater = new Deflater();
+		deflater.setInput(src.array(), src.arrayOffset(), src.remaining());
+		deflater.finish();
+		byte[] out = new byte[Math.max(64, src.remaining() / 2)];
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == out.length)
+				out = Arrays.copyOf(out, out.length * 2);
+			length += deflater.deflate(out, length, out.length - length);
+		}
+		deflater.end();
+		return ByteBuffer.wrap(out, 0, length);
+	}
+
+	private static ByteBuffer inflate(ByteBuffer src, int size) throws IOException {
+		byte[] out = new byte[size];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(src.array(), src.arrayOffset() + src.position(), src.remaining());
+			int length = 0;
+			while (length < size && !inflater.finished()) {
+				int n = inflater.inflate(out, length, size - length);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				length += n;
+			}
+			return ByteBuffer.wrap(out, 0, length);
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt heightmap file.", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE has to provide SHA-1.
+			throw new AssertionError(e);
+		}
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b: bytes)
+			sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+}
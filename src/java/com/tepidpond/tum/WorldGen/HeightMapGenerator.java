@@ -0,0 +1,321 @@
+package com.tepidpond.tum.WorldGen;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import net.minecraft.util.ChatComponentText;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.tepidpond.tum.G;
+import com.tepidpond.tum.PlateTectonics.Lithosphere;
+
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.PlayerEvent;
+
+/**
+ * Runs the plate tectonics simulation for a world on a background thread.
+ *
+ * Progress is written to the log and shown to players who join while the
+ * simulation runs. The finished map is stored in the world's TUMPerWorldData;
+ * anything that needs it sooner waits in getHeightMap().
+ *
+ * The simulation is checkpointed every CHECKPOINT_PERIOD generations, and a
+ * generator started after a crash or restart continues from the checkpoint.
+ *
+ * There is at most one generator per world and seed. Every chunk provider
+ * of the world that asks for one while it runs gets the same generator.
+ */
+public class HeightMapGenerator implements Callable<float[]> {
+	private static final Logger logger = LogManager.getLogger(G.ModID + ".WorldGen");
+	// Milliseconds between progress messages in the log.
+	private static final long PROGRESS_LOG_INTERVAL = 10000;
+	// Generations between checkpoints.
+	private static final int CHECKPOINT_PERIOD = 50;
+
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, G.ModID + " heightmap generator");
+			// Never hold up a server shutdown.
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	// Threads each simulation may use; 0 for one fewer than the processors.
+	private static volatile int simulationThreads;
+	// Generators that have not finished yet.
+	private static final ConcurrentMap<WorldKey, HeightMapGenerator> running =
+			new ConcurrentHashMap<WorldKey, HeightMapGenerator>();
+
+	private final WorldKey key;
+	private final TUMPerWorldData data;
+	private final long seed;
+	private final File checkpoint;
+	private final FutureTask<float[]> task;
+	private volatile long startTime;
+	private volatile int generation;
+	// Generation this run started from, later than 0 after a resume.
+	private volatile int firstGeneration;
+	private volatile int cycle;
+
+	private HeightMapGenerator(WorldKey key, TUMPerWorldData data, long seed, File checkpoint) {
+		this.key = key;
+		this.data = data;
+		this.seed = seed;
+		this.checkpoint = checkpoint;
+		this.task = new FutureTask<float[]>(this);
+	}
+
+	/**
+	 * @param threads Threads a simulation may use, or 0 for one fewer than
+	 *                the processors, leaving one for the server.
+	 */
+	public static void configure(int threads) {
+		simulationThreads = threads;
+	}
+
+	private static int getSimulationThreads() {
+		int threads = simulationThreads;
+		return threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	}
+
+	/**
+	 * Start generating a world's heightmap in the background, unless it has
+	 * been generated already or is being generated.
+	 * @param data Settings of the world, which receives the finished map.
+	 * @param seed World seed.
+	 * @param checkpoint File to save progress to and resume from, or null.
+	 * @return The world's generator, or null if the world has a heightmap.
+	 */
+	public static synchronized HeightMapGenerator start(TUMPerWorldData data, long seed, File checkpoint) {
+		// A generator removes itself only after storing the map, so the map
+		// is either stored or still on its way.
+		if (data.isHeightMapGenerated())
+			return null;
+		WorldKey key = new WorldKey(data, seed);
+		HeightMapGenerator generator = running.get(key);
+		if (generator == null) {
+			generator = new HeightMapGenerator(key, data, seed, checkpoint);
+			running.put(key, generator);
+			executor.execute(generator.task);
+		}
+		return generator;
+	}
+
+	/**
+	 * Wait for the heightmap of a world, if it is being generated.
+	 * @return The world's heightmap, or null if it has none and no generator
+	 *         has been started for it.
+	 */
+	public static float[] await(TUMPerWorldData data, long seed) {
+		HeightMapGenerator generator = running.get(new WorldKey(data, seed));
+		if (generator != null)
+			generator.getHeightMap();
+		return data.getHeightMap();
+	}
+
+	@Override
+	public float[] call() {
+		try {
+			startTime = System.currentTimeMillis();
+			String cacheKey = HeightMapCache.key(data, seed);
+			HeightMapFile cached = HeightMapCache.get(cacheKey);
+			if (cached != null && cached.getMapSize() == data.getMapSize()
+					&& data.setHeightMap(cached.getMap(), cached.getMapSize())) {
+				logger.info("Using cached heightMap.");
+			} else {
+				float[] heightMap = simulate();
+				if (!data.setHeightMap(heightMap, data.getMapSize())) {
+					String message = String.format("Simulated heightMap of %d tiles does not fit a map of size %d.",
+							heightMap.length, data.getMapSize());
+					logger.error(message);
+					throw new IllegalStateException(message);
+				}
+				HeightMapCache.put(cacheKey, heightMap, data.getMapSize());
+				if (checkpoint != null && !checkpoint.delete() && checkpoint.exists())
+					logger.warn("Could not delete " + checkpoint);
+			}
+			// Build the pyramid now, rather than in the first caller to need it.
+			data.getHeightPyramid();
+			return data.getHeightMap();
+		} finally {
+			running.remove(key, this);
+		}
+	}
+
+	/**
+	 * Run the plate simulation, from the checkpoint if there is one.
+	 * @return The finished heightmap. The Lithosphere, with its plates, is
+	 *         garbage once this returns. The map is a heap array even when
+	 *         the simulation ran on direct or mapped buffers, as everything
+	 *         that stores or reads it takes a float[]; only the simulation's
+	 *         working maps are kept off the heap.
+	 */
+	private float[] simulate() {
+		Lithosphere lithos = resume();
+		if (lithos == null) {
+			logger.info("Pre-generating heightMap...");
+			lithos = new Lithosphere(
+					data.getMapSize(),
+					data.getLandSeaRatio(),
+					data.getErosionPeriod(),
+					data.getFoldingRatio(),
+					data.getAggrRatioAbs(),
+					data.getAggrRatioRel(),
+					data.getMaxCycles(),
+					data.getNumPlates(),
+					seed,
+					data.getFractal());
+		}
+		firstGeneration = lithos.getUpdateCount();
+		generation = firstGeneration;
+
+		try {
+			lithos.setParallelism(getSimulationThreads());
+			long nextLog = startTime + PROGRESS_LOG_INTERVAL;
+			while (lithos.getUpdateCount() < data.getMaxGens()) {
+				lithos.Update();
+				generation = lithos.getUpdateCount();
+				cycle = lithos.getCycle();
+				if (System.currentTimeMillis() >= nextLog) {
+					logger.info("Generating heightMap: " + getProgress());
+					nextLog = System.currentTimeMillis() + PROGRESS_LOG_INTERVAL;
+				}
+				if (generation % CHECKPOINT_PERIOD == 0 && generation < data.getMaxGens())
+					saveCheckpoint(lithos);
+			}
+			logger.info(String.format("...done in %d s", (System.currentTimeMillis() - startTime) / 1000));
+
+			return lithos.getHeightmap();
+		} finally {
+			// The pool's threads would otherwise idle until the server stops.
+			lithos.close();
+		}
+	}
+
+	/**
+	 * Pick up the simulation from the checkpoint, if there is a usable one.
+	 */
+	private Lithosphere resume() {
+		if (checkpoint == null || !checkpoint.exists())
+			return null;
+		try {
+			Lithosphere lithos = Lithosphere.resume(checkpoint);
+			if (lithos.getMapSize() != data.getMapSize()) {
+				logger.warn("Ignoring checkpoint for a different map size: " + checkpoint);
+				return null;
+			}
+			if (lithos.getFractal() != data.getFractal()) {
+				logger.warn("Ignoring checkpoint for a different fractal: " + checkpoint);
+				return null;
+			}
+			logger.info(String.format("Resuming heightMap from generation %d...", lithos.getUpdateCount()));
+			return lithos;
+		} catch (IOException e) {
+			logger.warn("Ignoring unreadable checkpoint " + checkpoint, e);
+			return null;
+		}
+	}
+
+	private void saveCheckpoint(Lithosphere lithos) {
+		if (checkpoint == null)
+			return;
+		try {
+			lithos.saveCheckpoint(checkpoint);
+		} catch (IOException e) {
+			// Losing the checkpoint only matters if the server dies too.
+			logger.warn("Could not save checkpoint " + checkpoint, e);
+		}
+	}
+
+	public boolean isDone() {
+		return task.isDone();
+	}
+
+	/**
+	 * Get the finished heightmap, waiting for the simulation if necessary.
+	 */
+	public float[] getHeightMap() {
+		if (!task.isDone())
+			logger.info("Waiting for heightMap: " + getProgress());
+
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					// Terrain can't be generated without the map, so keep waiting.
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException("HeightMap generation failed", e.getCause());
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Describe how far the simulation has got, for people waiting on it.
+	 */
+	public String getProgress() {
+		int first = firstGeneration, done = generation, total = data.getMaxGens();
+		String progress = String.format("generation %d of %d, cycle %d", done, total, cycle);
+		if (done > first && done < total) {
+			long elapsed = System.currentTimeMillis() - startTime;
+			progress += String.format(", about %d s left", elapsed * (total - done) / (done - first) / 1000);
+		}
+		return progress;
+	}
+
+	/**
+	 * Identifies a world's generator. TUMPerWorldData has no equals(), so
+	 * worlds are told apart by the identity of their data.
+	 */
+	private static final class WorldKey {
+		private final TUMPerWorldData data;
+		private final long seed;
+
+		WorldKey(TUMPerWorldData data, long seed) {
+			this.data = data;
+			this.seed = seed;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof WorldKey))
+				return false;
+			WorldKey other = (WorldKey)o;
+			return data == other.data && seed == other.seed;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(data) * 31 + (int)(seed ^ (seed >>> 32));
+		}
+	}
+
+	/**
+	 * Tells players who join while a heightmap is being generated why the
+	 * world is not ready yet. Register on the FML event bus.
+	 */
+	public static class ProgressNotifier {
+		@SubscribeEvent
+		public void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent event) {
+			for (HeightMapGenerator generator: running.values())
+				event.player.addChatMessage(new ChatComponentText("Terrain is still being generated: " + generator.getProgress()));
+		}
+	}
+}
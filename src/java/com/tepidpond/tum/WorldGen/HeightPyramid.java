@@ -0,0 +1,312 @@
+package com.tepidpond.tum.WorldGen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.tepidpond.tum.PlateTectonics.Lithosphere;
+
+/**
+ * Lowest, highest and mean heights of the heightmap over squares of 2^k
+ * tiles, for every k up to the whole map, so questions about a rectangle of
+ * the map do not have to look at every tile in it.
+ *
+ * A rectangle is answered from the largest squares that fit in it, with
+ * smaller ones only along its edges, and squares that cannot change the
+ * answer are skipped; that is about log2(mapSize) squares per unit of edge
+ * rather than one per tile. Rectangles wrap, like the map.
+ *
+ * The pyramid is saved next to the heightmap with the hash of the heightmap
+ * file it was built from, and only loaded for that heightmap.
+ */
+public class HeightPyramid {
+	private static final int MAGIC = 0x54554d50;	// "TUMP"
+	private static final int VERSION = 1;
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private final float[] heightMap;
+	private final int mapSize;
+	// Level 0 is the heightmap itself. Level k > 0 has (mapSize >> k)^2 cells
+	// of 2^k x 2^k tiles, row by row; these arrays are empty at level 0.
+	private final int levels;
+	private final float[][] min, max, mean;
+
+	private HeightPyramid(float[] heightMap, int mapSize) {
+		this.heightMap = heightMap;
+		this.mapSize = mapSize;
+		this.levels = Integer.numberOfTrailingZeros(mapSize) + 1;
+		this.min = new float[levels][];
+		this.max = new float[levels][];
+		this.mean = new float[levels][];
+		min[0] = max[0] = mean[0] = new float[0];
+	}
+
+	/**
+	 * @param mapSize Side of the heightmap; a power of two.
+	 */
+	public static HeightPyramid build(float[] heightMap, int mapSize) {
+		HeightPyramid pyramid = new HeightPyramid(heightMap, mapSize);
+		for (int level = 1; level < pyramid.levels; level++)
+			pyramid.reduce(level);
+		return pyramid;
+	}
+
+	/**
+	 * Fill a level from the one below it, four cells at a time.
+	 */
+	private void reduce(int level) {
+		int side = mapSize >> level, below = side * 2;
+		float[] lo = new float[side * side], hi = new float[side * side], avg = new float[side * side];
+		float[] loBelow = level == 1 ? heightMap : min[level - 1];
+		float[] hiBelow = level == 1 ? heightMap : max[level - 1];
+		float[] avgBelow = level == 1 ? heightMap : mean[level - 1];
+		for (int y = 0, i = 0; y < side; y++) {
+			for (int x = 0; x < side; x++, i++) {
+				int a = (y * 2) * below + x * 2, b = a + 1, c = a + below, d = c + 1;
+				lo[i] = Math.min(Math.min(loBelow[a], loBelow[b]), Math.min(loBelow[c], loBelow[d]));
+				hi[i] = Math.max(Math.max(hiBelow[a], hiBelow[b]), Math.max(hiBelow[c], hiBelow[d]));
+				avg[i] = (avgBelow[a] + avgBelow[b] + avgBelow[c] + avgBelow[d]) * 0.25f;
+			}
+		}
+		min[level] = lo;
+		max[level] = hi;
+		mean[level] = avg;
+	}
+
+	public float[] getHeightMap() { return heightMap; }
+	public int getMapSize()       { return mapSize; }
+	/** Number of levels, from single tiles (0) to the whole map. */
+	public int getLevels()        { return levels; }
+
+	/** Lowest height in a cell of a level. */
+	public float getMin(int level, int cellX, int cellY) {
+		return level == 0 ? heightMap[cellY * mapSize + cellX] : min[level][cellY * (mapSize >> level) + cellX];
+	}
+	/** Highest height in a cell of a level. */
+	public float getMax(int level, int cellX, int cellY) {
+		return level == 0 ? heightMap[cellY * mapSize + cellX] : max[level][cellY * (mapSize >> level) + cellX];
+	}
+	/** Mean height of a cell of a level. */
+	public float getMean(int level, int cellX, int cellY) {
+		return level == 0 ? heightMap[cellY * mapSize + cellX] : mean[level][cellY * (mapSize >> level) + cellX];
+	}
+
+	/**
+	 * Highest height in a rectangle of tiles.
+	 * @return The height, or -Float.MAX_VALUE if the rectangle is empty.
+	 */
+	public float maxHeight(int x, int y, int width, int height) {
+		float best = -Float.MAX_VALUE;
+		int[] r = split(x, y, width, height);
+		for (int i = 0; i < r.length; i += 4)
+			if (r[i] < r[i + 2] && r[i + 1] < r[i + 3])
+				best = max(levels - 1, 0, 0, r[i], r[i + 1], r[i + 2], r[i + 3], best);
+		return best;
+	}
+
+	/**
+	 * Lowest height in a rectangle of tiles.
+	 * @return The height, or Float.MAX_VALUE if the rectangle is empty.
+	 */
+	public float minHeight(int x, int y, int width, int height) {
+		float best = Float.MAX_VALUE;
+		int[] r = split(x, y, width, height);
+		for (int i = 0; i < r.length; i += 4)
+			if (r[i] < r[i + 2] && r[i + 1] < r[i + 3])
+				best = min(levels - 1, 0, 0, r[i], r[i + 1], r[i + 2], r[i + 3], best);
+		return best;
+	}
+
+	/**
+	 * Mean height of a rectangle of tiles.
+	 * @return The mean, or 0 if the rectangle is empty.
+	 */
+	public float meanHeight(int x, int y, int width, int height) {
+		double sum = 0;
+		long area = 0;
+		int[] r = split(x, y, width, height);
+		for (int i = 0; i < r.length; i += 4) {
+			if (r[i] < r[i + 2] && r[i + 1] < r[i + 3]) {
+				sum += sum(levels - 1, 0, 0, r[i], r[i + 1], r[i + 2], r[i + 3]);
+				area += (long)(r[i + 2] - r[i]) * (r[i + 3] - r[i + 1]);
+			}
+		}
+		if (area == 0)
+			return 0;
+		return (float)(sum / area);
+	}
+
+	/**
+	 * Whether any tile in a rectangle is higher than threshold. Stops at the
+	 * first square that shows there is one.
+	 */
+	public boolean anyAbove(float threshold, int x, int y, int width, int height) {
+		int[] r = split(x, y, width, height);
+		for (int i = 0; i < r.length; i += 4)
+			if (r[i] < r[i + 2] && r[i + 1] < r[i + 3] && above(threshold, levels - 1, 0, 0, r[i], r[i + 1], r[i + 2], r[i + 3]))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Whether a rectangle has any land in it, i.e. any tile that is not sea
+	 * by the reckoning of BiomeMap.
+	 */
+	public boolean anyLand(int x, int y, int width, int height) {
+		// Land is at or above CONTINENTAL_BASE, so above the float just below it.
+		return anyAbove(Math.nextAfter(Lithosphere.CONTINENTAL_BASE, Double.NEGATIVE_INFINITY), x, y, width, height);
+	}
+
+	/**
+	 * Cut a rectangle that may wrap into up to four that do not, as
+	 * [x0, y0, x1, y1) quadruples. Empty ones have x0 == x1 or y0 == y1.
+	 */
+	private int[] split(int x, int y, int width, int height) {
+		width = Math.min(width, mapSize);
+		height = Math.min(height, mapSize);
+		x &= mapSize - 1;
+		y &= mapSize - 1;
+		int xEnd = Math.min(x + width, mapSize), xWrap = x + width - xEnd;
+		int yEnd = Math.min(y + height, mapSize), yWrap = y + height - yEnd;
+		return new int[] {
+			x, y, xEnd, yEnd,
+			0, y, xWrap, yEnd,
+			x, 0, xEnd, yWrap,
+			0, 0, xWrap, yWrap,
+		};
+	}
+
+	private float max(int level, int cx, int cy, int x0, int y0, int x1, int y1, float best) {
+		int size = 1 << level, nx = cx << level, ny = cy << level;
+		if (nx >= x1 || nx + size <= x0 || ny >= y1 || ny + size <= y0)
+			return best;
+		float cell = getMax(level, cx, cy);
+		if (cell <= best)
+			return best;
+		if (nx >= x0 && nx + size <= x1 && ny >= y0 && ny + size <= y1)
+			return cell;
+		for (int child = 0; child < 4; child++)
+			best = max(level - 1, cx * 2 + (child & 1), cy * 2 + (child >> 1), x0, y0, x1, y1, best);
+		return best;
+	}
+
+	private float min(int level, int cx, int cy, int x0, int y0, int x1, int y1, float best) {
+		int size = 1 << level, nx = cx << level, ny = cy << level;
+		if (nx >= x1 || nx + size <= x0 || ny >= y1 || ny + size <= y0)
+			return best;
+		float cell = getMin(level, cx, cy);
+		if (cell >= best)
+			return best;
+		if (nx >= x0 && nx + size <= x1 && ny >= y0 && ny + size <= y1)
+			return cell;
+		for (int child = 0; child < 4; child++)
+			best = min(level - 1, cx * 2 + (child & 1), cy * 2 + (child >> 1), x0, y0, x1, y1, best);
+		return best;
+	}
+
+	private double sum(int level, int cx, int cy, int x0, int y0, int x1, int y1) {
+		int size = 1 << level, nx = cx << level, ny = cy << level;
+		if (nx >= x1 || nx + size <= x0 || ny >= y1 || ny + size <= y0)
+			return 0;
+		if (nx >= x0 && nx + size <= x1 && ny >= y0 && ny + size <= y1)
+			return (double)getMean(level, cx, cy) * size * size;
+		double sum = 0;
+		for (int child = 0; child < 4; child++)
+			sum += sum(level - 1, cx * 2 + (child & 1), cy * 2 + (child >> 1), x0, y0, x1, y1);
+		return sum;
+	}
+
+	private boolean above(float threshold, int level, int cx, int cy, int x0, int y0, int x1, int y1) {
+		int size = 1 << level, nx = cx << level, ny = cy << level;
+		if (nx >= x1 || nx + size <= x0 || ny >= y1 || ny + size <= y0)
+			return false;
+		if (getMax(level, cx, cy) <= threshold)
+			return false;
+		if (nx >= x0 && nx + size <= x1 && ny >= y0 && ny + size <= y1)
+			return true;
+		for (int child = 0; child < 4; child++)
+			if (above(threshold, level - 1, cx * 2 + (child & 1), cy * 2 + (child >> 1), x0, y0, x1, y1))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Save the pyramid of the heightmap file with the given hash. The file
+	 * is replaced only once the new one is complete.
+	 */
+	public void write(File file, String heightMapHash) throws IOException {
+		byte[] hash = heightMapHash.getBytes(ASCII);
+		int floats = 0;
+		for (int level = 1; level < levels; level++)
+			floats += 3 * min[level].length;
+		ByteBuffer data = ByteBuffer.allocate(16 + hash.length + floats * 4);
+		data.putInt(MAGIC).putInt(VERSION).putInt(mapSize).putInt(hash.length).put(hash);
+		for (int level = 1; level < levels; level++) {
+			putFloats(data, min[level]);
+			putFloats(data, max[level]);
+			putFloats(data, mean[level]);
+		}
+		data.flip();
+
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(tmp);
+		try {
+			FileChannel channel = stream.getChannel();
+			while (data.hasRemaining())
+				channel.write(data);
+			channel.force(false);
+		} finally {
+			stream.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Load the pyramid of a heightmap, saved by write().
+	 * @param heightMapHash Hash of the heightmap's file.
+	 * @throws IOException If the file is missing or damaged, or belongs to
+	 *                     another heightmap.
+	 */
+	public static HeightPyramid read(File file, float[] heightMap, int mapSize, String heightMapHash) throws IOException {
+		ByteBuffer data = HeightMapFile.readFully(file);
+		if (data.remaining() < 16 || data.getInt() != MAGIC || data.getInt() != VERSION)
+			throw new IOException("Not a height pyramid file.");
+		if (data.getInt() != mapSize)
+			throw new IOException("Height pyramid is for another map.");
+		int hashLength = data.getInt();
+		if (hashLength < 0 || hashLength > data.remaining())
+			throw new IOException("Corrupt height pyramid file.");
+		byte[] hash = new byte[hashLength];
+		data.get(hash);
+		if (!new String(hash, ASCII).equals(heightMapHash))
+			throw new IOException("Height pyramid is for another map.");
+
+		HeightPyramid pyramid = new HeightPyramid(heightMap, mapSize);
+		for (int level = 1; level < pyramid.levels; level++) {
+			int cells = (mapSize >> level) * (mapSize >> level);
+			if (data.remaining() < cells * 3 * 4)
+				throw new IOException("Height pyramid file is truncated.");
+			pyramid.min[level] = getFloats(data, cells);
+			pyramid.max[level] = getFloats(data, cells);
+			pyramid.mean[level] = getFloats(data, cells);
+		}
+		return pyramid;
+	}
+
+	private static void putFloats(ByteBuffer data, float[] values) {
+		data.asFloatBuffer().put(values);
+		data.position(data.position() + values.length * 4);
+	}
+
+	private static float[] getFloats(ByteBuffer data, int count) {
+		float[] values = new float[count];
+		data.asFloatBuffer().get(values);
+		data.position(data.position() + count * 4);
+		return values;
+	}
+}
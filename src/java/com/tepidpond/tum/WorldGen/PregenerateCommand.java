@@ -0,0 +1,81 @@
+package com.tepidpond.tum.WorldGen;
+
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.util.ChatComponentText;
+import net.minecraft.util.ChunkCoordinates;
+import net.minecraft.world.WorldServer;
+
+/**
+ * /tumpregen radius [x z] [threads] [chunksPerTick]
+ * /tumpregen status
+ * /tumpregen stop
+ *
+ * Pregenerates the chunks within radius chunks of block x, z, or of the
+ * spawn point. Fewer threads and chunks per tick leave more of the server
+ * to the players.
+ */
+public class PregenerateCommand extends CommandBase {
+	private static final int DEFAULT_CHUNKS_PER_TICK = 16;
+	private static final int MAX_RADIUS = 4096;
+
+	@Override
+	public String getCommandName() {
+		return "tumpregen";
+	}
+
+	@Override
+	public String getCommandUsage(ICommandSender sender) {
+		return "/tumpregen <radius> [<x> <z>] [threads] [chunksPerTick] | status | stop";
+	}
+
+	@Override
+	public int getRequiredPermissionLevel() {
+		return 3;
+	}
+
+	@Override
+	public void processCommand(ICommandSender sender, String[] args) {
+		if (args.length == 1 && args[0].equals("status")) {
+			if (Pregenerator.getActive().isEmpty())
+				sender.addChatMessage(new ChatComponentText("No pregeneration running."));
+			for (Pregenerator run: Pregenerator.getActive())
+				sender.addChatMessage(new ChatComponentText("Pregenerating: " + run.getStatus()));
+			return;
+		}
+		if (args.length == 1 && args[0].equals("stop")) {
+			for (Pregenerator run: Pregenerator.getActive())
+				run.cancel();
+			return;
+		}
+		if (args.length != 1 && args.length != 3 && args.length != 4 && args.length != 5)
+			throw new WrongUsageException(getCommandUsage(sender));
+
+		WorldServer world = (WorldServer)sender.getEntityWorld();
+		int radius = parseIntBounded(sender, args[0], 0, MAX_RADIUS);
+		int x, z;
+		if (args.length >= 3) {
+			x = parseInt(sender, args[1]);
+			z = parseInt(sender, args[2]);
+		} else {
+			ChunkCoordinates spawn = world.getSpawnPoint();
+			x = spawn.posX;
+			z = spawn.posZ;
+		}
+		int processors = Runtime.getRuntime().availableProcessors();
+		int threads = args.length >= 4 ? parseIntBounded(sender, args[3], 1, processors * 2) : Math.max(1, processors - 1);
+		int chunksPerTick = args.length >= 5 ? parseIntBounded(sender, args[4], 1, 1024) : DEFAULT_CHUNKS_PER_TICK;
+
+		Pregenerator run;
+		try {
+			run = new Pregenerator(world, x >> 4, z >> 4, radius, threads, chunksPerTick, sender);
+		} catch (IllegalArgumentException e) {
+			sender.addChatMessage(new ChatComponentText(e.getMessage()));
+			return;
+		}
+		run.start();
+		sender.addChatMessage(new ChatComponentText(String.format(
+				"Pregenerating %d chunks around %d, %d on %d threads.", (2 * radius + 1) * (2 * radius + 1), x, z, threads)));
+	}
+}
@@ -0,0 +1,243 @@
+package com.tepidpond.tum.WorldGen;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.minecraft.command.ICommandSender;
+import net.minecraft.util.ChatComponentText;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.AnvilChunkLoader;
+import net.minecraft.world.chunk.storage.IChunkLoader;
+import net.minecraft.world.gen.ChunkProviderServer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.tepidpond.tum.G;
+
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+
+/**
+ * Generates and saves every chunk in a square around a point ahead of time,
+ * so players exploring it later load chunks instead of waiting for them.
+ *
+ * Chunks are generated on TUMChunkWorkers, nearest first, and written
+ * through the world's chunk loader on the server thread, a limited number
+ * per tick. Chunks that exist already, on disk or loaded, are left alone.
+ * Progress is reported to whoever started the run.
+ */
+public class Pregenerator {
+	private static final Logger logger = LogManager.getLogger(G.ModID + ".WorldGen");
+	// Milliseconds between progress reports.
+	private static final long REPORT_INTERVAL = 5000;
+	// Chunks queued on the workers per worker thread.
+	private static final int QUEUED_PER_THREAD = 4;
+	// Chunks looked at per tick when skipping existing ones.
+	private static final int MAX_SKIPPED_PER_TICK = 1024;
+
+	// Runs in progress, advanced by Ticker.
+	private static final List<Pregenerator> active = new CopyOnWriteArrayList<Pregenerator>();
+
+	private final WorldServer world;
+	private final ChunkProviderServer chunkProvider;
+	private final AnvilChunkLoader chunkLoader;
+	private final TUMChunkWorkers workers;
+	private final ICommandSender listener;
+	private final int centerX, centerZ, radius;
+	private final int maxQueued;
+	private final int chunksPerTick;
+	private final long total;
+
+	// Position of the next chunk to queue: ring around the center, and index
+	// along the ring.
+	private int ring, ringIndex;
+	private long saved, skipped;
+	private final long startTime;
+	private long nextReport;
+	private volatile boolean cancelled;
+
+	/**
+	 * @param world A world generated by TUMChunkProviderGenerate.
+	 * @param centerX X coordinate of the center chunk.
+	 * @param centerZ Z coordinate of the center chunk.
+	 * @param radius Chunks to generate on each side of the center.
+	 * @param threads Worker threads; they run at minimum priority.
+	 * @param chunksPerTick Most chunks to save per server tick.
+	 * @param listener Receives progress reports, or null.
+	 * @throws IllegalArgumentException If the world is not a TUM world, or
+	 *                                  does not save chunks with Anvil.
+	 */
+	public Pregenerator(WorldServer world, int centerX, int centerZ, int radius, int threads, int chunksPerTick, ICommandSender listener) {
+		this.world = world;
+		this.chunkProvider = world.theChunkProviderServer;
+		if (!(chunkProvider.currentChunkProvider instanceof TUMChunkProviderGenerate))
+			throw new IllegalArgumentException("Not a TUM world.");
+		IChunkLoader loader = chunkProvider.currentChunkLoader;
+		// Chunks are saved and looked for through the Anvil loader's own methods.
+		if (!(loader instanceof AnvilChunkLoader))
+			throw new IllegalArgumentException("The world does not save chunks in the Anvil format.");
+		this.chunkLoader = (AnvilChunkLoader)loader;
+		this.workers = new TUMChunkWorkers((TUMChunkProviderGenerate)chunkProvider.currentChunkProvider, threads, Thread.MIN_PRIORITY);
+		this.listener = listener;
+		this.centerX = centerX;
+		this.centerZ = centerZ;
+		this.radius = radius;
+		this.maxQueued = threads * QUEUED_PER_THREAD;
+		this.chunksPerTick = chunksPerTick;
+		this.total = (2L * radius + 1) * (2L * radius + 1);
+		this.startTime = System.currentTimeMillis();
+		this.nextReport = startTime + REPORT_INTERVAL;
+	}
+
+	/**
+	 * Start advancing on every server tick.
+	 */
+	public void start() {
+		logger.info(String.format("Pregenerating %d chunks around chunk (%d, %d)", total, centerX, centerZ));
+		active.add(this);
+	}
+
+	/**
+	 * Stop after the current tick. Chunks already saved stay saved.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public static List<Pregenerator> getActive() {
+		return active;
+	}
+
+	/**
+	 * Stop every run at once, e.g. when the server stops and ticks no more.
+	 */
+	public static void stopAll() {
+		for (Pregenerator run: active)
+			run.finish("Pregeneration stopped: ");
+	}
+
+	/**
+	 * Queue more chunks and save the finished ones. Server thread only.
+	 * @return False once the run is over.
+	 */
+	boolean tick() {
+		if (cancelled) {
+			finish("Pregeneration cancelled: ");
+			return false;
+		}
+
+		for (int looked = 0; workers.getPending() < maxQueued && hasNext() && looked < MAX_SKIPPED_PER_TICK; looked++) {
+			int x = centerX + ringX(), z = centerZ + ringZ();
+			advance();
+			if (exists(x, z))
+				skipped++;
+			else
+				workers.submit(x, z);
+		}
+
+		try {
+			for (int i = 0; i < chunksPerTick; i++) {
+				Chunk chunk = workers.poll();
+				if (chunk == null)
+					break;
+				// A player may have loaded it in the meantime; theirs wins.
+				if (exists(chunk.xPosition, chunk.zPosition)) {
+					skipped++;
+					continue;
+				}
+				chunkLoader.saveChunk(world, chunk);
+				saved++;
+			}
+		} catch (Exception e) {
+			logger.error("Pregeneration failed", e);
+			finish("Pregeneration failed: ");
+			return false;
+		}
+
+		if (!hasNext() && workers.getPending() == 0) {
+			finish("Pregeneration finished: ");
+			return false;
+		}
+		if (System.currentTimeMillis() >= nextReport) {
+			report("Pregenerating: " + getStatus());
+			nextReport = System.currentTimeMillis() + REPORT_INTERVAL;
+		}
+		return true;
+	}
+
+	/**
+	 * Describe progress: chunks done, rate and time left.
+	 */
+	public String getStatus() {
+		long done = saved + skipped;
+		double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+		double rate = saved / seconds;
+		String status = String.format("%d of %d chunks (%d already there), %.1f chunks/s", done, total, skipped, rate);
+		if (rate > 0 && done < total)
+			status += String.format(", about %d s left", (long)((total - done) / rate));
+		return status;
+	}
+
+	private void finish(String message) {
+		workers.shutdown();
+		active.remove(this);
+		report(message + getStatus());
+	}
+
+	private void report(String message) {
+		logger.info(message);
+		if (listener != null)
+			listener.addChatMessage(new ChatComponentText(message));
+	}
+
+	private boolean exists(int x, int z) {
+		return chunkProvider.chunkExists(x, z) || chunkLoader.chunkExists(world, x, z);
+	}
+
+	// Chunks are visited ring by ring. Ring r > 0 has 8r chunks, walked as
+	// four sides of 2r chunks: top, right, bottom and left.
+	private boolean hasNext() {
+		return ring <= radius;
+	}
+	private int ringX() {
+		if (ring == 0) return 0;
+		int side = ringIndex / (2 * ring), offset = ringIndex % (2 * ring);
+		switch (side) {
+		case 0:  return -ring + offset;
+		case 1:  return ring;
+		case 2:  return ring - offset;
+		default: return -ring;
+		}
+	}
+	private int ringZ() {
+		if (ring == 0) return 0;
+		int side = ringIndex / (2 * ring), offset = ringIndex % (2 * ring);
+		switch (side) {
+		case 0:  return -ring;
+		case 1:  return -ring + offset;
+		case 2:  return ring;
+		default: return ring - offset;
+		}
+	}
+	private void advance() {
+		if (++ringIndex >= 8 * ring) {
+			ring++;
+			ringIndex = 0;
+		}
+	}
+
+	/**
+	 * Advances pregeneration runs. Register on the FML event bus.
+	 */
+	public static class Ticker {
+		@SubscribeEvent
+		public void onServerTick(TickEvent.ServerTickEvent event) {
+			if (event.phase != TickEvent.Phase.END)
+				return;
+			for (Pregenerator run: active)
+				run.tick();
+		}
+	}
+}
@@ -1,81 +1,139 @@
 package com.tepidpond.tum.WorldGen;
 
-import java.util.Arrays;
-import java.util.Random;
+import java.io.File;
 
 import net.minecraft.block.Block;
 import net.minecraft.init.Blocks;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.IChunkProvider;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraft.world.gen.ChunkProviderGenerate;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.tepidpond.tum.G;
+import com.tepidpond.tum.FarTerrain.TerrainSource;
 import com.tepidpond.tum.PlateTectonics.Lithosphere;
 import com.tepidpond.tum.PlateTectonics.Util;
 
 public class TUMChunkProviderGenerate extends ChunkProviderGenerate {
     private static final Logger logger = LogManager.getLogger(G.ModID + ".WorldGen");
+	// Simulation progress, in the world's save directory.
+	private static final String CHECKPOINT_FILE = G.ModID + "_heightmap.checkpoint";
 
-	private World worldObj;
-	private Lithosphere lithos;
-	private TUMPerWorldData data;
-	private Random rand;
+	public static final int WORLD_HEIGHT = 256;
+	public static final int RESERVED_BASEMENT = 4;
+	// Heightmap tiles per block.
+	public static final float SCALE_FACTOR = 1f / 4f;
+	// Surface to assume where there is no heightmap yet; vanilla's.
+	public static final int DEFAULT_SURFACE_HEIGHT = 64;
 	
-	private Block[] idsTop;
-	private Block[] idsBig;
-	private byte[] metaBig;
+	// Everything below is either immutable or published safely, so chunks
+	// may be generated on several threads at once; see TUMChunkWorkers.
+	private final World worldObj;
+	private final TUMPerWorldData data;
+	// Simulation still running for this world, if any.
+	private volatile HeightMapGenerator generator;
+	private volatile Terrain terrain;
+	
+	/**
+	 * The heightmap and the constants that turn it into terrain. Immutable,
+	 * so it can be shared by every thread generating chunks.
+	 */
+	private static final class Terrain {
+		final float[] heightMap;
+		final int mapSize;
+		final float heightMin, heightScale;
+		final int seaLevel;
+		
+		Terrain(float[] heightMap, int mapSize, float min, float max) {
+			this.heightMap = heightMap;
+			this.mapSize = mapSize;
+			this.heightMin = min;
+			this.heightScale = (WORLD_HEIGHT - RESERVED_BASEMENT) / (max - min);
+			this.seaLevel = (int) ((Lithosphere.CONTINENTAL_BASE - min) * heightScale);
+		}
+		
+		/**
+		 * The terrain of a world's heightmap, the map and its bounds read
+		 * together.
+		 * @return The terrain, or null if there is no heightmap yet.
+		 */
+		static Terrain of(TUMPerWorldData data) {
+			float[] bounds = new float[2];
+			float[] heightMap = data.getHeightMap(bounds);
+			if (heightMap == null)
+				return null;
+			// The size too comes from this map, not from the settings.
+			return new Terrain(heightMap, (int)Math.sqrt(heightMap.length), bounds[0], bounds[1]);
+		}
+		
+		/**
+		 * Height of the top of the stone of a column, from its heightmap
+		 * sample. Stone fills the heights below it.
+		 */
+		int stoneTop(float sample) {
+			int stoneTop = (int) Math.ceil((sample - heightMin) * heightScale + RESERVED_BASEMENT);
+			return Math.max(RESERVED_BASEMENT, Math.min(WORLD_HEIGHT, stoneTop));
+		}
+	}
+	
+	/**
+	 * Height of the first block above the stone or water of a column, as
+	 * generateTerrain() would build it, without generating the chunk.
+	 * @return The height, or DEFAULT_SURFACE_HEIGHT if the world has no
+	 *         heightmap yet.
+	 */
+	public static int getSurfaceHeight(TUMPerWorldData data, int x, int z) {
+		Terrain t = Terrain.of(data);
+		if (t == null)
+			return DEFAULT_SURFACE_HEIGHT;
+		float[] sample = new float[1];
+		Util.quadInterpolate(t.heightMap, t.mapSize, x, z, 1, 1, SCALE_FACTOR, sample);
+		return Math.max(t.seaLevel, t.stoneTop(sample[0]));
+	}
 	
 	public TUMChunkProviderGenerate(World world, long seed, boolean par4) {
 		super(world, seed, par4);
 		worldObj = world;
-		rand = new Random(seed);
-		
-		this.idsTop = new Block[32768];
-		this.idsBig = new Block[16*16*256];
-		this.metaBig = new byte[16*16*256];
 		
 		data = TUMPerWorldData.get(world);
-		if (!data.isHeightMapGenerated()) {
-			logger.info("Pre-generating heightMap...");
-			lithos = new Lithosphere(
-					data.getMapSize(),
-					data.getLandSeaRatio(),
-					data.getErosionPeriod(),
-					data.getFoldingRatio(),
-					data.getAggrRatioAbs(),
-					data.getAggrRatioRel(),
-					data.getMaxCycles(),
-					data.getNumPlates(),
-					worldObj.getSeed());
-			
-			for (int i = 0; i < data.getMaxGens(); i++) {
-				lithos.Update();
-				// TODO: Some updating of something here is essential
-			}
-			logger.info("...done");
-						
-			// Save the normalized output.
-			data.setHeightMap(lithos.getHeightmap(), lithos.getMapSize());
-			data.markDirty();
+		// Shared with any other provider of this world.
+		File checkpoint = new File(world.getSaveHandler().getWorldDirectory(), CHECKPOINT_FILE);
+		generator = HeightMapGenerator.start(data, worldObj.getSeed(), checkpoint);
+		// For the far terrain renderer, if this is an integrated server.
+		TerrainSource.publish(world.provider.dimensionId, data);
+	}
+	
+	/**
+	 * Get the world's terrain, waiting for the heightmap to be generated if
+	 * necessary. Threads that get here at the same time may each build a
+	 * Terrain, which is harmless as they are all the same.
+	 */
+	private Terrain getTerrain() {
+		Terrain t = terrain;
+		if (t != null)
+			return t;
+		HeightMapGenerator g = generator;
+		if (g != null) {
+			g.getHeightMap();
+			generator = null;
 		}
+		t = Terrain.of(data);
+		terrain = t;
+		return t;
 	}
 	
+	/**
+	 * Safe to call from any thread. The chunk is not added to the world.
+	 */
 	@Override
 	public Chunk provideChunk(int chunkX, int chunkZ)
 	{
-		this.rand.setSeed(chunkX * 341873128712L + chunkZ * 132897987541L);
-		
-		Arrays.fill(idsTop, null);
-		Arrays.fill(idsBig, null);
-		Arrays.fill(metaBig, (byte)0);
-		
-		generateTerrain(chunkX, chunkZ, idsTop, rand, idsBig, metaBig);
-		
-		Chunk chunk = new Chunk(this.worldObj, idsBig, metaBig, chunkX, chunkZ);
+		Chunk chunk = new Chunk(this.worldObj, chunkX, chunkZ);
+		generateTerrain(chunkX, chunkZ, chunk.getBlockStorageArray());
 		
 		chunk.generateSkylightMap();
 		return chunk;
@@ -86,39 +144,56 @@ public class TUMChunkProviderGenerate extends ChunkProviderGenerate {
 		return;	// Do nothing!
 	}
 	
-	private void generateTerrain(int chunkX, int chunkZ, Block[] idsTop, Random rand, Block[] idsBig, byte[] metaBig) {
-		int worldHeight = 256;
-		float scaleFactor = 1f / 4f;
-		float min = TUMPerWorldData.get(worldObj).getHeightMapMin();
-		float max = TUMPerWorldData.get(worldObj).getHeightMapMax();
-		float reservedBasement = 4f;
-		float heightScale = (worldHeight - reservedBasement) / (max - min);
-		int seaLevel = (int) ((Lithosphere.CONTINENTAL_BASE - min) * heightScale);
-
-		float[] hm = data.getHeightMap();
-		for (int x = 0; x<16; x++)
-		{
-			float xCoord = ((chunkX * 16) + x);
-			for (int z = 0; z<16; z++)
-			{
-				float zCoord = ((chunkZ * 16) + z);
-				float sample = Util.quadInterpolate(hm, data.getMapSize(), xCoord * scaleFactor, zCoord * scaleFactor);
-				sample = (sample - min) * heightScale + reservedBasement;
-				
-				int arrayIndex = (x << 4 | z) * worldHeight;
-				for (int height = 0; height < worldHeight; height++, arrayIndex++)
-				{
-					if (height < reservedBasement)
-						idsBig[arrayIndex] = Blocks.bedrock;
-					else if (sample > height)
-						idsBig[arrayIndex] = Blocks.stone;
-					else if (height < seaLevel)
-						idsBig[arrayIndex] = Blocks.water;
-					else
-						idsBig[arrayIndex] = Blocks.air;
-				}
-			}
+	/**
+	 * Build a chunk's blocks straight into its sections. Each column is
+	 * bedrock, stone up to the sampled height, water up to sea level and air
+	 * above that, so it is filled as four runs, and sections that would hold
+	 * nothing but air are never created.
+	 */
+	private void generateTerrain(int chunkX, int chunkZ, ExtendedBlockStorage[] sections) {
+		Terrain t = getTerrain();
+		int seaLevel = t.seaLevel;
+		// Heightmap samples and heights of the chunk's columns, both indexed
+		// z << 4 | x. Local, as this may run on several threads.
+		float[] samples = new float[16 * 16];
+		int[] stoneTops = new int[16 * 16];
+		
+		int chunkTop = Math.min(seaLevel, WORLD_HEIGHT);
+		Util.quadInterpolate(t.heightMap, t.mapSize, chunkX * 16, chunkZ * 16, 16, 16, SCALE_FACTOR, samples);
+		for (int column = 0; column < 16 * 16; column++) {
+			int stoneTop = t.stoneTop(samples[column]);
+			stoneTops[column] = stoneTop;
+			chunkTop = Math.max(chunkTop, stoneTop);
 		}
 		
+		byte bedrock = (byte) Block.getIdFromBlock(Blocks.bedrock);
+		byte stone = (byte) Block.getIdFromBlock(Blocks.stone);
+		byte water = (byte) Block.getIdFromBlock(Blocks.water);
+		boolean hasSky = !worldObj.provider.hasNoSky;
+		for (int section = 0; section << 4 < chunkTop; section++) {
+			int yBase = section << 4;
+			ExtendedBlockStorage storage = new ExtendedBlockStorage(yBase, hasSky);
+			byte[] ids = storage.getBlockLSBArray();
+			for (int column = 0; column < 16 * 16; column++) {
+				int stoneTop = stoneTops[column];
+				fillRun(ids, column, yBase, 0, RESERVED_BASEMENT, bedrock);
+				fillRun(ids, column, yBase, RESERVED_BASEMENT, stoneTop, stone);
+				fillRun(ids, column, yBase, stoneTop, seaLevel, water);
+			}
+			// Count the blocks, which the arrays were filled without.
+			storage.removeInvalidBlocks();
+			sections[section] = storage;
+		}
+	}
+	
+	/**
+	 * Set heights [from, to) of a column to a block, as far as they are in
+	 * the section starting at yBase.
+	 */
+	private static void fillRun(byte[] ids, int column, int yBase, int from, int to, byte id) {
+		from = Math.max(from, yBase);
+		to = Math.min(to, yBase + 16);
+		for (int y = from; y < to; y++)
+			ids[(y - yBase) << 8 | column] = id;
 	}
 }
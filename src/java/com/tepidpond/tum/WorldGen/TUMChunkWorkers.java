@@ -0,0 +1,129 @@
+package com.tepidpond.tum.WorldGen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.chunk.Chunk;
+
+import com.tepidpond.tum.G;
+
+/**
+ * Generates chunks of a TUM world on a pool of worker threads.
+ *
+ * The workers only build chunks. Adding them to the world is not thread
+ * safe, so it is left to the server thread, which either collects chunks as
+ * they are finished with poll() or waits for a whole batch with generate().
+ */
+public class TUMChunkWorkers {
+	private static final AtomicInteger poolNumber = new AtomicInteger();
+
+	private final TUMChunkProviderGenerate provider;
+	private final ExecutorService pool;
+	private final ConcurrentLinkedQueue<Chunk> finished = new ConcurrentLinkedQueue<Chunk>();
+	// Chunks submitted and not yet returned by poll().
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile RuntimeException failure;
+
+	/**
+	 * @param threads Number of worker threads.
+	 * @param priority Thread priority of the workers, e.g. Thread.MIN_PRIORITY
+	 *                 to stay out of the way of the server thread.
+	 */
+	public TUMChunkWorkers(TUMChunkProviderGenerate provider, int threads, final int priority) {
+		this.provider = provider;
+		final String name = G.ModID + " chunk worker " + poolNumber.incrementAndGet() + "-";
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(priority);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queue a chunk for generation. It is handed back by poll().
+	 */
+	public void submit(final int chunkX, final int chunkZ) {
+		pending.incrementAndGet();
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					finished.add(provider.provideChunk(chunkX, chunkZ));
+				} catch (RuntimeException e) {
+					failure = e;
+					pending.decrementAndGet();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Take a chunk queued by submit() that has been generated.
+	 * @return The chunk, or null if none is ready yet.
+	 * @throws RuntimeException If generating a chunk failed.
+	 */
+	public Chunk poll() {
+		RuntimeException e = failure;
+		if (e != null)
+			throw e;
+		Chunk chunk = finished.poll();
+		if (chunk != null)
+			pending.decrementAndGet();
+		return chunk;
+	}
+
+	/**
+	 * Number of chunks submitted that poll() has not returned yet.
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * Generate a batch of chunks and wait for all of them.
+	 * @return The chunks, in the order of coords.
+	 */
+	public List<Chunk> generate(List<ChunkCoordIntPair> coords) throws InterruptedException {
+		List<Callable<Chunk>> tasks = new ArrayList<Callable<Chunk>>(coords.size());
+		for (final ChunkCoordIntPair coord: coords) {
+			tasks.add(new Callable<Chunk>() {
+				@Override
+				public Chunk call() {
+					return provider.provideChunk(coord.chunkXPos, coord.chunkZPos);
+				}
+			});
+		}
+
+		List<Chunk> chunks = new ArrayList<Chunk>(coords.size());
+		for (Future<Chunk> result: pool.invokeAll(tasks)) {
+			try {
+				chunks.add(result.get());
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Chunk generation failed", e.getCause());
+			}
+		}
+		return chunks;
+	}
+
+	/**
+	 * Stop the workers once the chunks already submitted are done.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
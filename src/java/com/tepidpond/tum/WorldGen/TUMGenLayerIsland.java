@@ -1,7 +1,5 @@
 package com.tepidpond.tum.WorldGen;
 
-import net.minecraft.world.gen.layer.IntCache;
-
 import com.tepidpond.tum.WorldGen.GenLayers.TUMGenLayer;
 
 public class TUMGenLayerIsland extends TUMGenLayer {
@@ -11,20 +9,16 @@ public class TUMGenLayerIsland extends TUMGenLayer {
 	}
 
 	@Override
-	public int[] getInts(int chunkX, int chunkZ, int maxX, int maxZ) {
-		int ints[] = IntCache.getIntCache(maxX * maxZ);
-		for (int z=0; z<maxZ; z++)
+	public void fill(int x0, int z0, int width, int height, int[] out) {
+		for (int z=0; z<height; z++)
 		{
-			for (int x=0; x<maxX; x++)
+			for (int x=0; x<width; x++)
 			{
-				this.initChunkSeed(chunkX + x, chunkZ + z);
-				ints[x+z*maxZ] = this.nextInt(4) == 0 ? 1 : 0;
+				out[x+z*width] = this.random(x0 + x, z0 + z, 0, 4) == 0 ? 1 : 0;
 			}
 		}
-		if (chunkX > -maxX && chunkX <= 0 && chunkZ > -maxZ && chunkZ <= 0)
-			ints[-chunkX + -chunkZ * maxZ] = 1;
-		
-		return ints;
+		if (x0 > -width && x0 <= 0 && z0 > -height && z0 <= 0)
+			out[-x0 + -z0 * width] = 1;
 	}
 
 }
@@ -1,19 +1,29 @@
 package com.tepidpond.tum.WorldGen;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldSavedData;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import com.tepidpond.tum.G;
+import com.tepidpond.tum.PlateTectonics.Fractal;
 
 public class TUMPerWorldData extends WorldSavedData {
+	private static final Logger logger = LogManager.getLogger(G.ModID + ".WorldGen");
 	private static final String tagPerWorldData = G.ModID;
+	// The heightmap itself is kept in this file in the world's directory.
+	private static final String HEIGHTMAP_FILE = G.ModID + "_heightmap.bin";
+	// Climate worked out from the heightmap, in the same directory.
+	private static final String RAINFALL_FILE = G.ModID + "_rainfall.bin";
+	private static final String TEMPERATURE_FILE = G.ModID + "_temperature.bin";
+	// Height pyramid of the heightmap; the file says which heightmap it is of.
+	private static final String PYRAMID_FILE = G.ModID + "_pyramid.bin";
 	private final String tagName;
 	
 	/* Region: Items saved in TUM.WorldGen.Settings */
@@ -26,12 +36,38 @@ public class TUMPerWorldData extends WorldSavedData {
 	private int   maxCycles =     G.WorldGen.DefaultMaxCycles;
 	private int   numPlates =     G.WorldGen.DefaultNumPlates;
 	private int   maxGens =       G.WorldGen.DefaultMaxGens;
+	private HeightMapFile.Format heightMapFormat = HeightMapFile.Format.FLOAT32;
+	private Fractal fractal = Fractal.DEFAULT;
 	
 	/* Region: Items saved in TUM.WorldGen.Storage */
-	private float[] heightMap;
-	private float heightMapMax = 1.0f;
-	private float heightMapMin = 0.0f;
-	private boolean heightMapGenerated = false;
+	// The heightmap may be finished on a generator thread, so it is published
+	// with its bounds in a single write.
+	private volatile StoredHeightMap heightMap;
+	// Hash of the heightmap file named by the NBT, until the file is loaded.
+	private String heightMapHash;
+	// Hashes of the climate files named by the NBT, until they are loaded.
+	private String rainfallHash, temperatureHash;
+	// World directory, once known; see get().
+	private volatile File directory;
+	
+	private static final class StoredHeightMap {
+		final float[] map;
+		final float min, max;
+		// Hash of the heightmap file, or null if it has not been written.
+		final String hash;
+		// Built from the map when first asked for.
+		volatile BiomeMap biomes;
+		volatile BiomeIndex biomeIndex;
+		volatile Climate climate;
+		volatile HeightPyramid pyramid;
+		
+		StoredHeightMap(float[] map, float min, float max, String hash) {
+			this.map = map;
+			this.min = min;
+			this.max = max;
+			this.hash = hash;
+		}
+	}
 	
 	public TUMPerWorldData() {
 		super(tagPerWorldData);
@@ -57,32 +93,50 @@ public class TUMPerWorldData extends WorldSavedData {
 			if (nbtSettings.hasKey("maxCycles"))     maxCycles =     nbtSettings.getInteger("maxCycles");
 			if (nbtSettings.hasKey("numPlates"))     numPlates =     nbtSettings.getInteger("numPlates");
 			if (nbtSettings.hasKey("maxGens"))       maxGens =       nbtSettings.getInteger("maxGens");
+			if (nbtSettings.hasKey("heightMapFormat")) {
+				try {
+					heightMapFormat = HeightMapFile.Format.valueOf(nbtSettings.getString("heightMapFormat"));
+				} catch (IllegalArgumentException e) {
+					// Written by a newer version; the default will do.
+				}
+			}
+			if (nbtSettings.hasKey("fractal")) {
+				try {
+					fractal = Fractal.valueOf(nbtSettings.getString("fractal"));
+				} catch (IllegalArgumentException e) {
+					// Written by a newer version; the default will do.
+				}
+			} else {
+				// Worlds from before the setting used the original noise.
+				fractal = Fractal.SQUARE_DIAMOND;
+			}
 		}
 
 		NBTTagCompound nbtStorage = nbtWorldGen.getCompoundTag("Storage");
-		float[] heightMap = new float[(int) Math.pow(mapSize, 2)];
-		if (nbtStorage != null && nbtStorage.hasKey("heightMap") && nbtStorage.hasKey("heightMapGenerated")) {
-			// Load packed heightmap from NBT
+		this.heightMap = null;
+		this.heightMapHash = null;
+		this.rainfallHash = null;
+		this.temperatureHash = null;
+		if (nbtStorage == null)
+			return;
+		if (nbtStorage.hasKey("rainfallHash") && nbtStorage.hasKey("temperatureHash")) {
+			rainfallHash = nbtStorage.getString("rainfallHash");
+			temperatureHash = nbtStorage.getString("temperatureHash");
+		}
+		if (nbtStorage.hasKey("heightMapHash")) {
+			// The map is loaded from its own file once get() knows where that is.
+			heightMapHash = nbtStorage.getString("heightMapHash");
+		} else if (nbtStorage.hasKey("heightMap") && nbtStorage.getBoolean("heightMapGenerated")) {
+			// Packed heightmap from before the map had its own file. It is
+			// moved to one as soon as the world directory is known.
 			byte[] byteArray = nbtStorage.getByteArray("heightMap");
-			heightMapGenerated = nbtStorage.getBoolean("heightMapGenerated");
-			if (byteArray.length == heightMap.length * 4 && heightMapGenerated) {
-				DataInputStream dis = new DataInputStream(new ByteArrayInputStream(byteArray));
-				try {
-					for(int i=0; i < heightMap.length; i++) {
-						heightMap[i] = dis.readFloat();							
-					}
-					setHeightMap(heightMap, mapSize);
-				} catch (IOException e) {
-					// There is no need to be upset. Just regenerate it. An extra minute at world
-					// load time is only annoying.
-					nbtStorage.removeTag("heightMap");
-					heightMapGenerated = false;
-				}
-			} else {
-				heightMapGenerated = false;
+			float[] heightMap = new float[(int) Math.pow(mapSize, 2)];
+			if (byteArray.length == heightMap.length * 4) {
+				ByteBuffer.wrap(byteArray).asFloatBuffer().get(heightMap);
+				setHeightMap(heightMap, mapSize);
 			}
-		} else {
-			heightMapGenerated = false;
+			// Otherwise there is no need to be upset. Just regenerate it. An
+			// extra minute at world load time is only annoying.
 		}
 	}
 
@@ -99,24 +153,23 @@ public class TUMPerWorldData extends WorldSavedData {
 		nbtSettings.setInteger("maxCycles",     maxCycles);
 		nbtSettings.setInteger("numPlates",     numPlates);
 		nbtSettings.setInteger("maxGens",       maxGens);
+		nbtSettings.setString( "heightMapFormat", heightMapFormat.name());
+		nbtSettings.setString( "fractal",       fractal.name());
 		nbtWorldGen.setTag("Settings", nbtSettings);
 		
-		if (heightMapGenerated) {
+		StoredHeightMap stored = heightMap;
+		String hash = stored != null ? stored.hash : heightMapHash;
+		if (hash != null) {
 			NBTTagCompound nbtStorage = new NBTTagCompound();
-			try {
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				DataOutputStream dos = new DataOutputStream(baos);
-				for(int i = 0; i < heightMap.length; i++) {
-					dos.writeFloat(heightMap[i]);
-				}
-				nbtStorage.setByteArray("heightMap", baos.toByteArray());
-				nbtStorage.setBoolean("heightMapGenerated", heightMapGenerated);
-				nbtWorldGen.setTag("Storage", nbtStorage);
-			} catch (IOException e) {
-				// This is a problem.
-				heightMapGenerated = false;
-				assert false: "Cause for panic, unable to save HeightMap to NBT";
+			nbtStorage.setString("heightMapHash", hash);
+			Climate climate = stored != null ? stored.climate : null;
+			String rainfall = climate != null ? climate.getRainfallHash() : rainfallHash;
+			String temperature = climate != null ? climate.getTemperatureHash() : temperatureHash;
+			if (rainfall != null && temperature != null) {
+				nbtStorage.setString("rainfallHash", rainfall);
+				nbtStorage.setString("temperatureHash", temperature);
 			}
+			nbtWorldGen.setTag("Storage", nbtStorage);
 		}
 		compound.setTag("WorldGen", nbtWorldGen);
 	}
@@ -127,17 +180,198 @@ public class TUMPerWorldData extends WorldSavedData {
 			data = new TUMPerWorldData(tagPerWorldData);
 			world.setItemData(tagPerWorldData, data);
 		}
+		if (data.directory == null)
+			data.attach(world.getSaveHandler().getWorldDirectory());
 		return data;
 	}
+	
+	/**
+	 * Load the heightmap file named by the NBT, or write the file for a
+	 * heightmap that does not have one yet.
+	 */
+	private synchronized void attach(File directory) {
+		if (this.directory != null)
+			return;
+		this.directory = directory;
+		
+		StoredHeightMap stored = heightMap;
+		if (stored != null && stored.hash == null) {
+			setHeightMap(stored.map, mapSize);
+		} else if (stored == null && heightMapHash != null) {
+			File file = new File(directory, HEIGHTMAP_FILE);
+			try {
+				HeightMapFile loaded = HeightMapFile.read(file, heightMapHash);
+				if (loaded.getMapSize() == mapSize)
+					heightMap = new StoredHeightMap(loaded.getMap(), loaded.getMin(), loaded.getMax(), loaded.getHash());
+			} catch (IOException e) {
+				logger.warn("Could not load " + file + ", the heightmap will be generated again.", e);
+			}
+			heightMapHash = null;
+		}
+	}
 
 	public float[] getHeightMap() {
-		if (heightMapGenerated) return heightMap;
+		StoredHeightMap stored = heightMap;
+		if (stored != null) return stored.map;
 		return null;
 	}
+	/**
+	 * Get the heightmap with its bounds, read together.
+	 * @param bounds Receives the map's min and max.
+	 * @return The map, or null if there is no heightmap yet.
+	 */
+	public float[] getHeightMap(float[] bounds) {
+		StoredHeightMap stored = heightMap;
+		if (stored == null)
+			return null;
+		bounds[0] = stored.min;
+		bounds[1] = stored.max;
+		return stored.map;
+	}
+	/**
+	 * Get the biomes of the heightmap, building them the first time.
+	 * @return The biomes, or null if there is no heightmap yet.
+	 */
+	public BiomeMap getBiomeMap() {
+		StoredHeightMap stored = heightMap;
+		if (stored == null)
+			return null;
+		// Threads that get here at the same time build the same map.
+		BiomeMap biomes = stored.biomes;
+		if (biomes == null) {
+			biomes = BiomeMap.build(stored.map, mapSize, stored.max, TUMChunkProviderGenerate.SCALE_FACTOR);
+			stored.biomes = biomes;
+		}
+		return biomes;
+	}
+	/**
+	 * Get the index of the biomes of the heightmap, building it the first
+	 * time.
+	 * @return The index, or null if there is no heightmap yet.
+	 */
+	public BiomeIndex getBiomeIndex() {
+		StoredHeightMap stored = heightMap;
+		if (stored == null)
+			return null;
+		BiomeIndex index = stored.biomeIndex;
+		if (index == null) {
+			index = BiomeIndex.build(getBiomeMap());
+			stored.biomeIndex = index;
+		}
+		return index;
+	}
+	/**
+	 * Get the climate of the heightmap, loading it from its files or working
+	 * it out the first time.
+	 * @return The climate, or null if there is no heightmap yet.
+	 */
+	public Climate getClimate() {
+		StoredHeightMap stored = heightMap;
+		if (stored == null)
+			return null;
+		Climate climate = stored.climate;
+		return climate != null ? climate : loadClimate(stored);
+	}
+	
+	private synchronized Climate loadClimate(StoredHeightMap stored) {
+		if (stored.climate != null)
+			return stored.climate;
+		File directory = this.directory;
+		File rainfallFile = directory != null ? new File(directory, RAINFALL_FILE) : null;
+		File temperatureFile = directory != null ? new File(directory, TEMPERATURE_FILE) : null;
+		
+		Climate climate = null;
+		if (directory != null && rainfallHash != null) {
+			try {
+				climate = Climate.read(rainfallFile, rainfallHash, temperatureFile, temperatureHash, TUMChunkProviderGenerate.SCALE_FACTOR);
+				if (climate.getMapSize() != mapSize)
+					climate = null;
+			} catch (IOException e) {
+				logger.warn("Could not load the climate, it will be worked out again.", e);
+			}
+		}
+		if (climate == null) {
+			climate = Climate.build(stored.map, mapSize, stored.max, TUMChunkProviderGenerate.SCALE_FACTOR);
+			if (directory != null) {
+				try {
+					climate.write(rainfallFile, temperatureFile);
+					markDirty();
+				} catch (IOException e) {
+					logger.warn("Could not save the climate, it will be worked out again next time.", e);
+				}
+			}
+		}
+		rainfallHash = null;
+		temperatureHash = null;
+		stored.climate = climate;
+		return climate;
+	}
+	/**
+	 * Get the height pyramid of the heightmap, loading it from its file or
+	 * building it the first time.
+	 * @return The pyramid, or null if there is no heightmap yet.
+	 */
+	public HeightPyramid getHeightPyramid() {
+		StoredHeightMap stored = heightMap;
+		if (stored == null)
+			return null;
+		HeightPyramid pyramid = stored.pyramid;
+		return pyramid != null ? pyramid : loadHeightPyramid(stored);
+	}
+	/**
+	 * Get the height pyramid with the bounds of the same heightmap, for
+	 * threads that could otherwise see the map replaced between two calls.
+	 * @param bounds Receives the map's min and max.
+	 * @return The pyramid, or null if there is no heightmap yet.
+	 */
+	public HeightPyramid getHeightPyramid(float[] bounds) {
+		StoredHeightMap stored = heightMap;
+		if (stored == null)
+			return null;
+		bounds[0] = stored.min;
+		bounds[1] = stored.max;
+		HeightPyramid pyramid = stored.pyramid;
+		return pyramid != null ? pyramid : loadHeightPyramid(stored);
+	}
+
+	private synchronized HeightPyramid loadHeightPyramid(StoredHeightMap stored) {
+		if (stored.pyramid != null)
+			return stored.pyramid;
+		File directory = this.directory;
+		File file = directory != null ? new File(directory, PYRAMID_FILE) : null;
+		
+		HeightPyramid pyramid = null;
+		// Without a hash there is no telling which map a file is of.
+		if (stored.hash != null && file.exists()) {
+			try {
+				pyramid = HeightPyramid.read(file, stored.map, mapSize, stored.hash);
+			} catch (IOException e) {
+				logger.info("Not using " + file + ", the height pyramid will be built again: " + e.getMessage());
+			}
+		}
+		if (pyramid == null) {
+			pyramid = HeightPyramid.build(stored.map, mapSize);
+			if (stored.hash != null) {
+				try {
+					pyramid.write(file, stored.hash);
+				} catch (IOException e) {
+					logger.warn("Could not save the height pyramid, it will be built again next time.", e);
+				}
+			}
+		}
+		stored.pyramid = pyramid;
+		return pyramid;
+	}
 	public boolean isHeightMapGenerated() {
-		return heightMapGenerated;
+		return heightMap != null;
 	}
-	public void setHeightMap(float map[], int mapSize) {
+	/**
+	 * Store a finished heightmap. Safe to call from any thread; other threads
+	 * see the map and its bounds together or not at all.
+	 * @return False, storing nothing, if the map is not mapSize^2 floats for
+	 *         a power of two mapSize.
+	 */
+	public boolean setHeightMap(float map[], int mapSize) {
 		if ((map.length & -map.length) == map.length && map.length == Math.pow(mapSize, 2)) {
 			float min = Float.MAX_VALUE;
 			float max = 0.0f;
@@ -145,22 +379,52 @@ public class TUMPerWorldData extends WorldSavedData {
 				if (map[i] > max) max = map[i];
 				if (map[i] < min) min = map[i];
 			}
-			heightMapMax = max;
-			heightMapMin = min;
-			
 			this.mapSize = mapSize;
-			this.heightMap = map;
-			heightMapGenerated = true;
+			synchronized (this) {
+				// Any climate on disk belongs to the old map.
+				rainfallHash = null;
+				temperatureHash = null;
+			}
+			this.heightMap = store(map, min, max);
 			this.markDirty();
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Save a heightmap to the world's heightmap file.
+	 * @return The map as it will be loaded next time, with the file's hash
+	 *         if it could be written.
+	 */
+	private StoredHeightMap store(float[] map, float min, float max) {
+		File directory = this.directory;
+		if (directory == null)
+			return new StoredHeightMap(map, min, max, null);	// attach() will write it.
+		File file = new File(directory, HEIGHTMAP_FILE);
+		try {
+			String hash = HeightMapFile.write(file, map, mapSize, min, max, heightMapFormat);
+			if (heightMapFormat == HeightMapFile.Format.UINT16) {
+				// Use the quantized heights from now on, or chunks generated
+				// before and after the next load would not line up.
+				HeightMapFile loaded = HeightMapFile.read(file, hash);
+				return new StoredHeightMap(loaded.getMap(), min, max, hash);
+			}
+			return new StoredHeightMap(map, min, max, hash);
+		} catch (IOException e) {
+			logger.error("Could not save " + file + ", the heightmap will be generated again next time.", e);
+			return new StoredHeightMap(map, min, max, null);
 		}
 	}
 	
 	public float getHeightMapMax() {
-		return heightMapMax;
+		StoredHeightMap stored = heightMap;
+		return stored != null ? stored.max : 1.0f;
 	}
 
 	public float getHeightMapMin() {
-		return heightMapMin;
+		StoredHeightMap stored = heightMap;
+		return stored != null ? stored.min : 0.0f;
 	}
 	
 	public int getMapSize() {
@@ -169,7 +433,7 @@ public class TUMPerWorldData extends WorldSavedData {
 
 	public void setMapSize(int mapSize) {
 		if (mapSize != this.mapSize)
-			heightMapGenerated = false;
+			heightMap = null;
 		this.mapSize = mapSize;
 		this.markDirty();
 	}
@@ -237,6 +501,32 @@ public class TUMPerWorldData extends WorldSavedData {
 		this.markDirty();
 	}
 
+	public HeightMapFile.Format getHeightMapFormat() {
+		return heightMapFormat;
+	}
+
+	/**
+	 * Choose how the heightmap file is encoded. Takes effect the next time
+	 * a heightmap is stored. UINT16 halves the file but is not exact.
+	 */
+	public void setHeightMapFormat(HeightMapFile.Format heightMapFormat) {
+		this.heightMapFormat = heightMapFormat;
+		this.markDirty();
+	}
+
+	public Fractal getFractal() {
+		return fractal;
+	}
+
+	/**
+	 * Choose the noise the simulation starts from. Takes effect the next
+	 * time a heightmap is generated.
+	 */
+	public void setFractal(Fractal fractal) {
+		this.fractal = fractal;
+		this.markDirty();
+	}
+
 	public int getMaxGens() {
 		return maxGens;
 	}
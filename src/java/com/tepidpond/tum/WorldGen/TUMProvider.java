@@ -15,4 +15,16 @@ public class TUMProvider extends WorldProvider {
 	{
 		return new TUMChunkProviderGenerate(worldObj, worldObj.getSeed(), worldObj.getWorldInfo().isMapFeaturesEnabled());
 	}
+	
+	/**
+	 * There is no grass for vanilla to look for, so spawn anywhere on land.
+	 * This is answered from the biomes, without generating the chunk.
+	 */
+	@Override
+	public boolean canCoordinateBeSpawn(int x, int z)
+	{
+		if (worldChunkMgr instanceof TUMWorldChunkManager)
+			return ((TUMWorldChunkManager)worldChunkMgr).isSpawnable(x, z);
+		return super.canCoordinateBeSpawn(x, z);
+	}
 }
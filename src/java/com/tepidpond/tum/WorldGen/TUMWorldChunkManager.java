@@ -1,6 +1,7 @@
 package com.tepidpond.tum.WorldGen;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
@@ -10,26 +11,32 @@ import net.minecraft.world.WorldType;
 import net.minecraft.world.biome.BiomeCache;
 import net.minecraft.world.biome.BiomeGenBase;
 import net.minecraft.world.biome.WorldChunkManager;
-import net.minecraft.world.gen.layer.GenLayer;
-import net.minecraft.world.gen.layer.GenLayerBiome;
-import net.minecraft.world.gen.layer.GenLayerVoronoiZoom;
+
+import com.tepidpond.tum.WorldGen.GenLayers.TUMGenLayer;
+import com.tepidpond.tum.WorldGen.GenLayers.TUMGenLayerBiomeMap;
 
 public class TUMWorldChunkManager extends WorldChunkManager {
 	protected World worldObj;
 	public long seed = 0;
-	
-	protected GenLayer genBiomes;
-	protected GenLayer biomeIndexLayer;
+
 	protected BiomeCache biomeCache;
 	protected List biomesToSpawnIn;
-	
+	// Biomes from the heightmap, once it is available. Null without a world.
+	private volatile BiomeMap biomeMap;
+	// The biomes of biomeMap refined to single blocks.
+	private volatile TUMGenLayer biomeLayer;
+	private final ThreadLocal<int[]> biomeIds = new ThreadLocal<int[]>();
+	private volatile Climate climate;
+	// Where findSpawnPosition() put the spawn, once it has.
+	private volatile ChunkPosition spawn;
+
 	public TUMWorldChunkManager() {
 		super();
 		biomeCache = new BiomeCache(this);
 		this.biomesToSpawnIn = new ArrayList();
 		this.biomesToSpawnIn.add(TUMBiome.plains);
 	}
-	
+
 	public TUMWorldChunkManager(World world)
 	{
 		this(world.getSeed(), world.getWorldInfo().getTerrainType());
@@ -39,55 +46,250 @@ public class TUMWorldChunkManager extends WorldChunkManager {
 	public TUMWorldChunkManager(long Seed, WorldType terrainType) {
 		this();
 		seed = Seed;
-		
-		GenLayer[] layers;
-		layers = GenLayer.initializeAllBiomeGenerators(Seed, TUMWorldType.DEFAULT);
-		this.genBiomes = new TUMGenLayerIsland(Seed);
-		this.biomeIndexLayer = new TUMGenLayerIsland(Seed);
 	}
-	
+
+	/**
+	 * Get the world's biomes, waiting for its heightmap if it is still
+	 * being generated.
+	 * @return The biomes, or null if there is no world to take them from.
+	 */
+	protected BiomeMap getBiomeMap() {
+		BiomeMap map = biomeMap;
+		if (map != null || worldObj == null)
+			return map;
+		TUMPerWorldData data = TUMPerWorldData.get(worldObj);
+		HeightMapGenerator.await(data, seed);
+		map = data.getBiomeMap();
+		if (map != null) {
+			int zooms = Integer.numberOfTrailingZeros(Math.round(1 / TUMChunkProviderGenerate.SCALE_FACTOR));
+			biomeLayer = TUMGenLayerBiomeMap.initializeBiomeLayers(seed, map, zooms);
+		}
+		biomeMap = map;
+		return map;
+	}
+
+	/**
+	 * Get the index of the world's biomes, waiting for its heightmap if it
+	 * is still being generated.
+	 * @return The index, or null if there is no world to take it from.
+	 */
+	protected BiomeIndex getBiomeIndex() {
+		if (getBiomeMap() == null)
+			return null;
+		return TUMPerWorldData.get(worldObj).getBiomeIndex();
+	}
+
+	@Override
+	public List getBiomesToSpawnIn()
+	{
+		return this.biomesToSpawnIn;
+	}
+
+	/**
+	 * Like vanilla, a random position of one of the biomes within radius of
+	 * (x, z), at the resolution of the heightmap. The world spawn, asked for
+	 * with getBiomesToSpawnIn(), is found however far away it is; see
+	 * findSpawnPosition().
+	 */
 	@Override
 	public ChunkPosition findBiomePosition(int x, int z, int radius, List biomeList, Random rand)
 	{
-		// TODO: Probably do something here.
-		return new ChunkPosition(x, 0, z); 
+		if (biomeList == this.biomesToSpawnIn)
+			return findSpawnPosition();
+		BiomeIndex index = getBiomeIndex();
+		if (index == null)
+			return null;
+		int x0 = toTile(x - radius), z0 = toTile(z - radius);
+		int x1 = toTile(x + radius), z1 = toTile(z + radius);
+		int[] tile = new int[2];
+		if (!index.findRandom(toBiomeSet(biomeList), x0, z0, x1 - x0 + 1, z1 - z0 + 1, rand, tile))
+			return null;
+		return new ChunkPosition(toBlock(tile[0]), 0, toBlock(tile[1]));
+	}
+
+	/**
+	 * Find the world spawn: the nearest tile of a spawn biome to the origin,
+	 * or failing that the nearest land, anywhere on the map. The height is
+	 * that of the surface there.
+	 * @return The spawn, or null if there is no heightmap to search or no
+	 *         land on it.
+	 */
+	public ChunkPosition findSpawnPosition()
+	{
+		ChunkPosition found = spawn;
+		if (found != null)
+			return found;
+		BiomeIndex index = getBiomeIndex();
+		if (index == null)
+			return null;
+		int[] tile = new int[2];
+		if (!index.findNearest(toBiomeSet(this.biomesToSpawnIn), 0, 0, index.getMapSize(), tile)
+				&& !index.findNearest(null, 0, 0, index.getMapSize(), tile))
+			return null;
+		int x = toBlock(tile[0]), z = toBlock(tile[1]);
+		found = new ChunkPosition(x, TUMChunkProviderGenerate.getSurfaceHeight(TUMPerWorldData.get(worldObj), x, z), z);
+		spawn = found;
+		return found;
+	}
+
+	/**
+	 * Whether players may spawn at a block: whether it is on land. Looked up
+	 * in the biomes, so no chunk is generated.
+	 */
+	public boolean isSpawnable(int x, int z)
+	{
+		BiomeIndex index = getBiomeIndex();
+		if (index == null)
+			return false;
+		return index.matches(null, toTile(x), toTile(z));
+	}
+
+	/**
+	 * The heightmap tile a block is on, rounded as BiomeMap rounds it.
+	 */
+	private static int toTile(int block)
+	{
+		return Math.round(block * TUMChunkProviderGenerate.SCALE_FACTOR);
+	}
+
+	/**
+	 * The block whose tile, by toTile(), is this one.
+	 */
+	private static int toBlock(int tile)
+	{
+		return Math.round(tile / TUMChunkProviderGenerate.SCALE_FACTOR);
+	}
+
+	/**
+	 * The ids of a list of BiomeGenBase as a BiomeIndex biome set.
+	 */
+	private static boolean[] toBiomeSet(List biomeList) {
+		boolean[] set = new boolean[256];
+		for (Object biome: biomeList)
+			set[((BiomeGenBase)biome).biomeID & 0xff] = true;
+		return set;
 	}
-	
+
+	/**
+	 * Get the world's climate, waiting for its heightmap if it is still
+	 * being generated.
+	 * @return The climate, or null if there is no world to take it from.
+	 */
+	protected Climate getClimate() {
+		Climate c = climate;
+		if (c != null || worldObj == null)
+			return c;
+		TUMPerWorldData data = TUMPerWorldData.get(worldObj);
+		HeightMapGenerator.await(data, seed);
+		c = data.getClimate();
+		climate = c;
+		return c;
+	}
+
 	@Override
 	public float[] getRainfall(float[] listToReuse, int x, int z, int width, int length)
 	{
-		// TODO: Definitely something here.
-		return new float[width*length];
+		Climate c = getClimate();
+		if (c != null)
+			return c.getRainfall(listToReuse, x, z, width, length);
+		if (listToReuse == null || listToReuse.length < width*length)
+			listToReuse = new float[width*length];
+		Arrays.fill(listToReuse, 0, width*length, 0f);
+		return listToReuse;
+	}
+
+	/**
+	 * Like getRainfall(), for the temperature at the surface.
+	 */
+	public float[] getTemperatures(float[] listToReuse, int x, int z, int width, int length)
+	{
+		Climate c = getClimate();
+		if (c != null)
+			return c.getTemperature(listToReuse, x, z, width, length);
+		if (listToReuse == null || listToReuse.length < width*length)
+			listToReuse = new float[width*length];
+		Arrays.fill(listToReuse, 0, width*length, TUMBiome.plains.temperature);
+		return listToReuse;
+	}
+
+	@Override
+	public BiomeGenBase getBiomeGenAt(int x, int z)
+	{
+		return this.biomeCache.getBiomeGenAt(x, z);
 	}
-	
+
+	@Override
+	public BiomeGenBase[] getBiomesForGeneration(BiomeGenBase[] biome, int x, int z, int width, int length)
+	{
+		if (biome == null || biome.length < width*length)
+			biome = new BiomeGenBase[width*length];
+		// Quarter resolution, like the heightmap at SCALE_FACTOR.
+		return getBiomes(biome, x * 4, z * 4, width, length, 4);
+	}
+
 	@Override
 	public BiomeGenBase[] getBiomeGenAt(BiomeGenBase[] biome, int xOrigin, int zOrigin, int width, int length, boolean cacheFlag)
 	{
 		if (biome == null || biome.length < width*length)
-			biome = new TUMBiome[width*length];
-		
+			biome = new BiomeGenBase[width*length];
+
 		// Only cache when dealing with full/aligned chunks
 		if (cacheFlag && width==16 && length==16 && (xOrigin & 15)==0 && (zOrigin & 15)==0)
 		{
 			BiomeGenBase[] cache = this.biomeCache.getCachedBiomes(xOrigin, zOrigin);
 			System.arraycopy(cache, 0, biome, 0, width * length);
 		} else {
-			// Get data from PRNG
-			int[] ints = this.biomeIndexLayer.getInts(xOrigin, zOrigin, width, length);
-			for(int z = 0; z < width; z++) {
-				for (int x = 0; x < length; x++) {
-					int id = ints[z * width + x] != -1 ? ints[z * width + x] : 0;
-					biome[z * width + x] = TUMBiome.plains;
-				}
+			getBiomes(biome, xOrigin, zOrigin, width, length, 1);
+		}
+		return biome;
+	}
+
+	private BiomeGenBase[] getBiomes(BiomeGenBase[] biome, int x, int z, int width, int length, int step)
+	{
+		BiomeMap map = getBiomeMap();
+		if (map != null && step == 1) {
+			int[] ids = biomeIds.get();
+			if (ids == null || ids.length < width*length) {
+				ids = new int[width*length];
+				biomeIds.set(ids);
 			}
+			biomeLayer.fill(x, z, width, length, ids);
+			for (int i = 0; i < width*length; i++)
+				biome[i] = BiomeGenBase.getBiome(ids[i]);
+			return biome;
 		}
+		if (map != null)
+			return map.getBiomes(biome, x, z, width, length, step);
+		for (int i = 0; i < width*length; i++)
+			biome[i] = TUMBiome.plains;
 		return biome;
 	}
-	
+
+	/**
+	 * Called by the world every tick. Drops cached biomes of chunks that
+	 * have not been asked about for a while, i.e. those of unloaded chunks.
+	 */
+	@Override
+	public void cleanupCache()
+	{
+		this.biomeCache.cleanupCache();
+	}
+
+	/**
+	 * Like vanilla, whether every biome within radius of (x, z), at the
+	 * resolution of the heightmap, is allowed.
+	 */
 	@Override
 	public boolean areBiomesViable(int x, int z, int radius, List allowableBiomes)
 	{
-		// TODO: Definitely something here.
-		return true;
+		BiomeIndex index = getBiomeIndex();
+		if (index == null)
+			return true;
+		int x0 = toTile(x - radius), z0 = toTile(z - radius);
+		int x1 = toTile(x + radius), z1 = toTile(z + radius);
+		int width = x1 - x0 + 1, length = z1 - z0 + 1;
+		// Rectangles wider than the map count each tile once.
+		int tiles = Math.min(width, index.getMapSize()) * Math.min(length, index.getMapSize());
+		return index.count(toBiomeSet(allowableBiomes), x0, z0, width, length) == tiles;
 	}
 }
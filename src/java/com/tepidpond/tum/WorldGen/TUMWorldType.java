@@ -1,5 +1,6 @@
 package com.tepidpond.tum.WorldGen;
 
+import net.minecraft.world.ChunkPosition;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldType;
 import net.minecraft.world.biome.BiomeGenBase;
@@ -29,10 +30,19 @@ public class TUMWorldType extends WorldType {
 		return new TUMChunkProviderGenerate(world,  world.getSeed(),  world.getWorldInfo().isMapFeaturesEnabled());
 	}
 	
+	/**
+	 * The height of the surface at the world spawn, which vanilla gives the
+	 * spawn when it places it.
+	 */
 	@Override
 	public int getMinimumSpawnHeight(World world)
 	{
-		return 64;
+		if (world.getWorldChunkManager() instanceof TUMWorldChunkManager) {
+			ChunkPosition spawn = ((TUMWorldChunkManager)world.getWorldChunkManager()).findSpawnPosition();
+			if (spawn != null)
+				return spawn.chunkPosY;
+		}
+		return TUMChunkProviderGenerate.DEFAULT_SURFACE_HEIGHT;
 	}
 	
 	@Override
@@ -0,0 +1,111 @@
+package com.tepidpond.tum.FarTerrain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tepidpond.tum.G;
+import com.tepidpond.tum.PlateTectonics.Lithosphere;
+import com.tepidpond.tum.WorldGen.HeightPyramid;
+
+/**
+ * Far terrain meshing as done for FarTerrainRenderer. buildMesh is reported
+ * in triangles per millisecond; the quadtree is built once per world and
+ * selection runs every frame.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class MeshBuilderBenchmark {
+	// Triangles in the mesh of any node: the grid and its four skirts.
+	static final int TRIANGLES = 2 * TerrainQuadtree.GRID * TerrainQuadtree.GRID + 8 * TerrainQuadtree.GRID;
+
+	@Param({"256", "512", "1024"})
+	public int mapSize;
+	@Param({"0"})
+	public long seed;
+
+	private float[] heightMap;
+	private TerrainQuadtree tree;
+	private MeshBuilder builder;
+	private long[] keys;
+	private int next;
+	private final List<TerrainQuadtree.Selection> selection = new ArrayList<TerrainQuadtree.Selection>();
+	private float camX;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Lithosphere lithos = new Lithosphere(
+				mapSize,
+				G.WorldGen.DefaultLandSeaRatio,
+				G.WorldGen.DefaultErosionPeriod,
+				G.WorldGen.DefaultFoldingRatio,
+				G.WorldGen.DefaultAggrRatioAbs,
+				G.WorldGen.DefaultAggrRatioRel,
+				G.WorldGen.DefaultMaxCycles,
+				G.WorldGen.DefaultNumPlates,
+				seed);
+		heightMap = lithos.getHeightmap();
+		tree = newTree();
+		builder = new MeshBuilder(tree);
+
+		// Every node of every depth, built round robin.
+		List<Long> all = new ArrayList<Long>();
+		for (int depth = 0; depth <= tree.getLeafDepth(); depth++)
+			for (int iz = 0; iz < 1 << depth; iz++)
+				for (int ix = 0; ix < 1 << depth; ix++)
+					all.add(TerrainQuadtree.key(depth, ix, iz));
+		keys = new long[all.size()];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = all.get(i);
+	}
+
+	private TerrainQuadtree newTree() {
+		float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+		for (float h: heightMap) {
+			if (h < min) min = h;
+			if (h > max) max = h;
+		}
+		float heightScale = 252 / (max - min);
+		return new TerrainQuadtree(HeightPyramid.build(heightMap, mapSize), 4, min, heightScale, 4, (Lithosphere.CONTINENTAL_BASE - min) * heightScale);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TRIANGLES)
+	public TerrainMesh buildMesh() {
+		next = (next + 1) % keys.length;
+		return builder.build(keys[next]);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	public TerrainQuadtree buildQuadtree() {
+		return newTree();
+	}
+
+	@Benchmark
+	public List<TerrainQuadtree.Selection> select() {
+		// Fly along X, as a player would, at 1080p and 70 degrees.
+		camX += 16;
+		selection.clear();
+		tree.select(camX, 100, 0, 2048, 160, 771, 16, selection);
+		return selection;
+	}
+}
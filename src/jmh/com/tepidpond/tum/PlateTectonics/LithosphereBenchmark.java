@@ -0,0 +1,115 @@
+package com.tepidpond.tum.PlateTectonics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole-simulation benchmarks: world creation, a single Update() step and
+ * the plate growing phase of world creation.
+ */
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LithosphereBenchmark {
+	@State(Scope.Benchmark)
+	public static class WorldParams {
+		@Param({"256", "512", "1024"})
+		public int mapSize;
+		@Param({"0", "1", "42"})
+		public long seed;
+	}
+
+	@State(Scope.Thread)
+	public static class UpdateState {
+		@Param({"256", "512", "1024"})
+		public int mapSize;
+		@Param({"0", "1", "42"})
+		public long seed;
+		// Updates run before the measured one. With the default settings the
+		// first Update() is generation 30, so 30 lands on an erosion generation.
+		@Param({"1", "30"})
+		public int warmGens;
+		// Pool size for the parallel phases; 1 is the serial code path.
+		@Param({"1", "4"})
+		public int threads;
+		@Param({"dense", "sparse"})
+		public String storage;
+		@Param({"HEAP", "DIRECT", "MAPPED"})
+		public WorldBuffers buffers;
+
+		Lithosphere lithos;
+
+		@Setup(Level.Iteration)
+		public void setUp() {
+			lithos = Worlds.newLithosphere(mapSize, seed, "sparse".equals(storage), buffers);
+			lithos.setParallelism(threads);
+			for (int i = 0; i < warmGens; i++)
+				lithos.Update();
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() {
+			lithos.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class GrowState {
+		@Param({"256", "512", "1024"})
+		public int mapSize;
+		@Param({"0", "1", "42"})
+		public long seed;
+
+		Lithosphere lithos;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			lithos = Worlds.newLithosphere(mapSize, seed);
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() {
+			lithos.close();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 5)
+	public Lithosphere construct(WorldParams p) {
+		return Worlds.newLithosphere(p.mapSize, p.seed);
+	}
+
+	// One generation per iteration; the world is rebuilt between iterations
+	// so every sample measures the same point of the simulation.
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 20)
+	public Lithosphere update(UpdateState s) {
+		s.lithos.Update();
+		return s.lithos;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 5)
+	public Lithosphere growPlates(GrowState s) {
+		s.lithos.growPlates(s.lithos.createPlates());
+		return s.lithos;
+	}
+}
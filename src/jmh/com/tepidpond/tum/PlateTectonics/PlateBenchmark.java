@@ -0,0 +1,105 @@
+package com.tepidpond.tum.PlateTectonics;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-plate phases of Lithosphere.Update(): erosion, continent
+ * segmentation (createSegment, reached through addCollision) and the
+ * world to plate lookups done for every overlapping tile.
+ *
+ * The plate is cut from a freshly created world. "world" makes it cover
+ * the whole map so every neighbour lookup wraps, "interior" uses a box
+ * half the map's side that never touches the world edge.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class PlateBenchmark {
+	private static final int COLLISION_POINTS = 256;
+
+	@Param({"256", "512", "1024"})
+	public int mapSize;
+	@Param({"0", "1", "42"})
+	public long seed;
+	@Param({"world", "interior"})
+	public String shape;
+	@Param({"dense", "sparse"})
+	public String storage;
+
+	private Plate plate;
+	private int[] collisionX, collisionY;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		float[] world = Worlds.newLithosphere(mapSize, seed).getHeightmap();
+		int size = "world".equals(shape) ? mapSize : mapSize / 2;
+		int origin = (mapSize - size) / 2;
+
+		float[] plateData = new float[size * size];
+		for (int y = 0; y < size; y++)
+			System.arraycopy(world, (y + origin) * mapSize + origin, plateData, y * size, size);
+		plate = new Plate(plateData, size, origin, origin, 0, mapSize, new Random(seed), "sparse".equals(storage));
+
+		// Continental tiles for addCollision to seed segments from.
+		Random rand = new Random(seed);
+		collisionX = new int[COLLISION_POINTS];
+		collisionY = new int[COLLISION_POINTS];
+		for (int i = 0; i < COLLISION_POINTS; ) {
+			int x = rand.nextInt(size), y = rand.nextInt(size);
+			if (plateData[y * size + x] < Lithosphere.CONTINENTAL_BASE)
+				continue;
+			collisionX[i] = x + origin;
+			collisionY[i] = y + origin;
+			i++;
+		}
+	}
+
+	@Benchmark
+	public Plate erode() {
+		plate.erode(Lithosphere.CONTINENTAL_BASE);
+		return plate;
+	}
+
+	// Every world tile, on or off the plate, as collectCollisions() and
+	// regenerateCrust() probe them. Off-plate lookups are the common case for
+	// the interior plate.
+	@Benchmark
+	public float lookup() {
+		float sum = 0;
+		for (int y = 0; y < mapSize; y++) {
+			for (int x = 0; x < mapSize; x++) {
+				sum += plate.getCrust(x, y);
+				sum += plate.getCrustTimestamp(x, y);
+			}
+		}
+		return sum;
+	}
+
+	// Segments are cached until the next reset, so each invocation starts clean
+	// as Update() does. The reset is part of the measured cost.
+	@Benchmark
+	public int createSegment() {
+		plate.resetSegments();
+		int area = 0;
+		for (int i = 0; i < COLLISION_POINTS; i++)
+			area += plate.addCollision(collisionX[i], collisionY[i]);
+		return area;
+	}
+}
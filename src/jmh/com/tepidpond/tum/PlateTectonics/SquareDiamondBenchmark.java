@@ -0,0 +1,71 @@
+package com.tepidpond.tum.PlateTectonics;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Initial fractal map generation, as called from the Lithosphere constructor:
+ * the original SquareDiamond and TorusSquareDiamond, on one thread and on a
+ * pool of all of them.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class SquareDiamondBenchmark {
+	@Param({"256", "512", "1024"})
+	public int mapSize;
+	@Param({"0", "1", "42"})
+	public long seed;
+
+	private float[] map;
+	private FloatBuffer torusMap;
+	private ForkJoinPool pool;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		map = new float[(mapSize + 1) * (mapSize + 1)];
+		torusMap = FloatBuffer.allocate(mapSize * mapSize);
+		pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public float[] sqrDmd() {
+		SquareDiamond.SqrDmd(map, mapSize + 1, 1.0f, 0.5f, seed);
+		return map;
+	}
+
+	@Benchmark
+	public FloatBuffer torusSerial() {
+		TorusSquareDiamond.generate(torusMap, mapSize, 1.0f, 0.5f, seed, null);
+		return torusMap;
+	}
+
+	@Benchmark
+	public FloatBuffer torusParallel() {
+		TorusSquareDiamond.generate(torusMap, mapSize, 1.0f, 0.5f, seed, pool);
+		return torusMap;
+	}
+}
@@ -0,0 +1,89 @@
+package com.tepidpond.tum.PlateTectonics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Heightmap sampling as done by TUMChunkProviderGenerate: one chunk's worth
+ * (16x16 samples) at the 1/4 block scale, and a 32x32 chunk region, each
+ * sampled point by point and in one batch.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class UtilBenchmark {
+	@Param({"256", "512", "1024"})
+	public int mapSize;
+	@Param({"0", "1", "42"})
+	public long seed;
+
+	private static final int REGION_BLOCKS = 32 * 16;
+
+	private float[] heightMap;
+	private int chunkX, chunkZ;
+	private final float[] chunkSamples = new float[16 * 16];
+	private final float[] regionSamples = new float[REGION_BLOCKS * REGION_BLOCKS];
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		heightMap = Worlds.newLithosphere(mapSize, seed).getHeightmap();
+	}
+
+	// Walk across chunks so the sample window moves like a player does.
+	private void nextChunk() {
+		chunkX++;
+		if ((chunkX & 63) == 0) chunkZ++;
+	}
+
+	@Benchmark
+	public void quadInterpolateChunk(Blackhole bh) {
+		nextChunk();
+		for (int x = 0; x < 16; x++) {
+			float xCoord = (chunkX * 16 + x) * 0.25f;
+			for (int z = 0; z < 16; z++) {
+				float zCoord = (chunkZ * 16 + z) * 0.25f;
+				bh.consume(Util.quadInterpolate(heightMap, mapSize, xCoord, zCoord));
+			}
+		}
+	}
+
+	@Benchmark
+	public float[] quadInterpolateChunkBatch() {
+		nextChunk();
+		return Util.quadInterpolate(heightMap, mapSize, chunkX * 16, chunkZ * 16, 16, 16, 0.25f, chunkSamples);
+	}
+
+	@Benchmark
+	public void quadInterpolateRegion(Blackhole bh) {
+		nextChunk();
+		for (int z = 0; z < REGION_BLOCKS; z++) {
+			float zCoord = (chunkZ * 16 + z) * 0.25f;
+			for (int x = 0; x < REGION_BLOCKS; x++) {
+				float xCoord = (chunkX * 16 + x) * 0.25f;
+				bh.consume(Util.quadInterpolate(heightMap, mapSize, xCoord, zCoord));
+			}
+		}
+	}
+
+	@Benchmark
+	public float[] quadInterpolateRegionBatch() {
+		nextChunk();
+		return Util.quadInterpolate(heightMap, mapSize, chunkX * 16, chunkZ * 16, REGION_BLOCKS, REGION_BLOCKS, 0.25f, regionSamples);
+	}
+}
@@ -0,0 +1,39 @@
+package com.tepidpond.tum.PlateTectonics;
+
+import com.tepidpond.tum.G;
+
+/**
+ * Shared set-up for the tectonics benchmarks. Every world is built with the
+ * G.WorldGen defaults so numbers are comparable to what a server generates.
+ */
+final class Worlds {
+	private Worlds() {}
+
+	static Lithosphere newLithosphere(int mapSize, long seed) {
+		return new Lithosphere(
+				mapSize,
+				G.WorldGen.DefaultLandSeaRatio,
+				G.WorldGen.DefaultErosionPeriod,
+				G.WorldGen.DefaultFoldingRatio,
+				G.WorldGen.DefaultAggrRatioAbs,
+				G.WorldGen.DefaultAggrRatioRel,
+				G.WorldGen.DefaultMaxCycles,
+				G.WorldGen.DefaultNumPlates,
+				seed);
+	}
+
+	static Lithosphere newLithosphere(int mapSize, long seed, boolean sparsePlates, WorldBuffers buffers) {
+		return new Lithosphere(
+				mapSize,
+				G.WorldGen.DefaultLandSeaRatio,
+				G.WorldGen.DefaultErosionPeriod,
+				G.WorldGen.DefaultFoldingRatio,
+				G.WorldGen.DefaultAggrRatioAbs,
+				G.WorldGen.DefaultAggrRatioRel,
+				G.WorldGen.DefaultMaxCycles,
+				G.WorldGen.DefaultNumPlates,
+				seed,
+				sparsePlates,
+				buffers);
+	}
+}
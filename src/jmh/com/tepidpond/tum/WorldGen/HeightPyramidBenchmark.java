@@ -0,0 +1,83 @@
+package com.tepidpond.tum.WorldGen;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tepidpond.tum.G;
+import com.tepidpond.tum.PlateTectonics.Lithosphere;
+
+/**
+ * Rectangle queries on a HeightPyramid against scanning the heightmap, over
+ * squares of a quarter of the map placed anywhere, wrapping included.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class HeightPyramidBenchmark {
+	@Param({"256", "512", "1024"})
+	public int mapSize;
+	@Param({"0"})
+	public long seed;
+
+	private float[] heightMap;
+	private HeightPyramid pyramid;
+	private final Random random = new Random(0);
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Lithosphere lithos = new Lithosphere(
+				mapSize,
+				G.WorldGen.DefaultLandSeaRatio,
+				G.WorldGen.DefaultErosionPeriod,
+				G.WorldGen.DefaultFoldingRatio,
+				G.WorldGen.DefaultAggrRatioAbs,
+				G.WorldGen.DefaultAggrRatioRel,
+				G.WorldGen.DefaultMaxCycles,
+				G.WorldGen.DefaultNumPlates,
+				seed);
+		heightMap = lithos.getHeightmap();
+		pyramid = HeightPyramid.build(heightMap, mapSize);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	public HeightPyramid build() {
+		return HeightPyramid.build(heightMap, mapSize);
+	}
+
+	@Benchmark
+	public float maxHeight() {
+		return pyramid.maxHeight(random.nextInt(mapSize), random.nextInt(mapSize), mapSize / 4, mapSize / 4);
+	}
+
+	@Benchmark
+	public boolean anyLand() {
+		return pyramid.anyLand(random.nextInt(mapSize), random.nextInt(mapSize), mapSize / 4, mapSize / 4);
+	}
+
+	@Benchmark
+	public float maxHeightScan() {
+		int x0 = random.nextInt(mapSize), y0 = random.nextInt(mapSize), side = mapSize / 4, mask = mapSize - 1;
+		float max = -Float.MAX_VALUE;
+		for (int y = y0; y < y0 + side; y++)
+			for (int x = x0; x < x0 + side; x++)
+				max = Math.max(max, heightMap[(y & mask) * mapSize + (x & mask)]);
+		return max;
+	}
+}